@@ -0,0 +1,75 @@
+import java.util.concurrent.atomic.*;
+
+/**
+ * Accept-rate and handshake statistics for the listener. {@link #sample} is called at a fixed
+ * rate; it detects reconnect bursts and reports how long each one took to settle, i.e. until
+ * the accept rate dropped back below the threshold and no handshakes were pending.
+ */
+class AcceptStats {
+    private static final double BURST_ACCEPTS_PER_SECOND = 50;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LatencyHistogram handshakeTime = new LatencyHistogram();
+
+    private long lastSampleNanos = System.nanoTime();
+    private long lastAccepted;
+    private double acceptRate;
+
+    private long burstStartNanos;
+    private long burstStartAccepted;
+    private volatile LatencyHistogram burstHandshakeTime;
+
+    public void onAccepted() { accepted.increment(); }
+    public void onQueued() { queued.incrementAndGet(); }
+    public void onDequeued() { queued.decrementAndGet(); }
+    public void onRejected() { rejected.increment(); }
+    public void onHandshakeStarted() { inFlight.incrementAndGet(); }
+
+    public void onHandshakeFinished(long acceptedNanos) {
+        inFlight.decrementAndGet();
+        long nanos = System.nanoTime() - acceptedNanos;
+        handshakeTime.recordNanos(nanos);
+        LatencyHistogram burst = burstHandshakeTime;
+        if (burst != null) {
+            burst.recordNanos(nanos);
+        }
+    }
+
+    /**
+     * Updates the accept rate. Returns a description of a reconnect burst that has just
+     * settled, or {@code null}.
+     */
+    public synchronized String sample() {
+        long now = System.nanoTime();
+        long total = accepted.sum();
+        double seconds = Math.max((now - lastSampleNanos) / 1e9, 1e-3);
+        acceptRate = (total - lastAccepted) / seconds;
+
+        String settled = null;
+        if (burstHandshakeTime == null) {
+            if (acceptRate >= BURST_ACCEPTS_PER_SECOND) {
+                burstStartNanos = lastSampleNanos;
+                burstStartAccepted = lastAccepted;
+                burstHandshakeTime = new LatencyHistogram();
+            }
+        } else if (acceptRate < BURST_ACCEPTS_PER_SECOND && inFlight.get() == 0 && queued.get() == 0) {
+            settled = String.format("Reconnect burst settled: %d connections in %.1fs, handshake %s",
+                    total - burstStartAccepted, (now - burstStartNanos) / 1e9, burstHandshakeTime.summary());
+            burstHandshakeTime = null;
+        }
+
+        lastSampleNanos = now;
+        lastAccepted = total;
+        return settled;
+    }
+
+    public synchronized String summary() {
+        return String.format("Accepts: %.0f/s | handshakes: %d in flight, %d queued | rejected: %d | handshake p50 %s, p99 %s",
+                acceptRate, inFlight.get(), queued.get(), rejected.sum(),
+                LatencyHistogram.formatMicros(handshakeTime.percentileMicros(50)),
+                LatencyHistogram.formatMicros(handshakeTime.percentileMicros(99)));
+    }
+}
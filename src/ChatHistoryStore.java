@@ -0,0 +1,201 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local chat history for one server and username, kept as a memory-mapped append log plus a
+ * memory-mapped offset index so that any page of history can be read without scanning.
+ *
+ * <p>{@code chat.log} holds records of {@code int length, UTF-8 bytes}. {@code chat.idx}
+ * starts with a header of {@code long count, long logEnd} followed by one {@code long}
+ * log offset per record. The header is written last, so a crash mid-append only loses the
+ * record being written. After an OS crash the mapped pages may reach disk in any order, so
+ * on open the history is cut back to the last indexed record that lies wholly in the log.
+ */
+class ChatHistoryStore implements Closeable {
+    private static final int HEADER_BYTES = 16;
+    private static final int LOG_WINDOW_BYTES = 1 << 20;
+    private static final int INITIAL_INDEX_BYTES = HEADER_BYTES + 8 * 4096;
+
+    private final FileChannel logChannel;
+    private final FileChannel indexChannel;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private MappedByteBuffer index;
+    private MappedByteBuffer logWindow;
+    private long logWindowStart;
+    private long count;
+    private long logEnd;
+    private boolean closed;
+
+    public ChatHistoryStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        logChannel = FileChannel.open(directory.resolve("chat.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(directory.resolve("chat.idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long indexSize = Math.max(indexChannel.size(), INITIAL_INDEX_BYTES);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+
+        long maxCount = (indexSize - HEADER_BYTES) / 8;
+        count = Math.min(Math.max(index.getLong(0), 0), maxCount);
+        logEnd = Math.min(Math.max(index.getLong(8), 0), logChannel.size());
+        recover();
+        mapLogWindow(logEnd, LOG_WINDOW_BYTES);
+    }
+
+    static Path defaultDirectory(String server, String username) {
+        return Paths.get(System.getProperty("user.home"), ".myclient", "history",
+                toFileName(server), toFileName(username));
+    }
+
+    private static String toFileName(String value) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                name.append(c);
+            } else {
+                name.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return name.toString();
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a message and returns its position in the history.
+     */
+    public long append(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int recordBytes = 4 + bytes.length;
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Chat history is closed");
+            }
+            if (logEnd + recordBytes > logWindowStart + logWindow.capacity()) {
+                mapLogWindow(logEnd, Math.max(LOG_WINDOW_BYTES, recordBytes));
+            }
+            int position = (int) (logEnd - logWindowStart);
+            logWindow.putInt(position, bytes.length);
+            logWindow.put(position + 4, bytes);
+
+            long indexPosition = HEADER_BYTES + count * 8;
+            if (indexPosition + 8 > index.capacity()) {
+                index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) index.capacity() * 2);
+            }
+            index.putLong((int) indexPosition, logEnd);
+
+            logEnd += recordBytes;
+            count++;
+            index.putLong(8, logEnd);
+            index.putLong(0, count);
+            return count - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads messages {@code [from, to)}, clamped to the stored history.
+     */
+    public List<String> read(long from, long to) throws IOException {
+        long start;
+        long end;
+        long[] offsets;
+
+        lock.lock();
+        try {
+            from = Math.max(0, from);
+            to = Math.min(to, count);
+            if (from >= to) {
+                return Collections.emptyList();
+            }
+            offsets = new long[(int) (to - from)];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = offsetOf(from + i);
+            }
+            start = offsets[0];
+            end = to < count ? offsetOf(to) : logEnd;
+        } finally {
+            lock.unlock();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Chat history log is truncated");
+            }
+        }
+
+        List<String> messages = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            int position = (int) (offset - start);
+            int length = buffer.getInt(position);
+            messages.add(new String(buffer.array(), position + 4, length, StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            logWindow.force();
+            index.force();
+            logChannel.close();
+            indexChannel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (count > 0) {
+            long offset = offsetOf(count - 1);
+            if (offset >= 0 && offset + 4 <= logEnd) {
+                length.clear();
+                logChannel.read(length, offset);
+                long recordEnd = offset + 4 + length.getInt(0);
+                if (length.getInt(0) >= 0 && recordEnd <= logEnd) {
+                    logEnd = recordEnd;
+                    return;
+                }
+            }
+            count--;
+        }
+        logEnd = 0;
+    }
+
+    private long offsetOf(long position) {
+        return index.getLong((int) (HEADER_BYTES + position * 8));
+    }
+
+    private void mapLogWindow(long start, int size) throws IOException {
+        if (logWindow != null) {
+            logWindow.force();
+        }
+        logWindow = logChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        logWindowStart = start;
+    }
+}
@@ -0,0 +1,736 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * The chat server engine without any user interface: login, message routing, banned-phrase
+ * filtering, heartbeats and traffic capture. Connections arrive through one or more
+ * {@link ConnectionListener}s, so the same engine serves TCP clients in {@link MyServer} and
+ * in-memory clients in {@link LoopbackSimulation}.
+ */
+class ChatServer {
+
+    private static final byte[] PING_FRAME = OutboundQueue.encode("PING");
+    private static final long CLIENT_LIST_INTERVAL_MILLIS = 100;
+    private static final long DRAIN_POLL_MILLIS = 10;
+    private static final long DRAIN_QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final ServerConfig config;
+    private final Consumer<String> log;
+    private final List<ConnectionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, ClientInfo> clients = new ConcurrentHashMap<>();
+    private volatile boolean isRunning = true;
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicInteger inFlightMessages = new AtomicInteger();
+
+    private final ExecutorService clientExecutor;
+    private final ExecutorService messageExecutor;
+    private final ScheduledExecutorService maintenanceScheduler;
+
+    private TrafficCapture capture;
+    private final HashedWheelTimer heartbeatTimer;
+    private final long heartbeatIntervalNanos;
+    private final long readTimeoutNanos;
+    private final long writeTimeoutNanos;
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final AtomicLong messageIds = new AtomicLong();
+
+    private final AcceptStats acceptStats = new AcceptStats();
+    private final Semaphore handshakePermits;
+    private final long handshakeQueueTimeoutMillis;
+    private final int handshakeTimeoutMillis;
+
+    private final int maxFrameBytes;
+    private final LongAdder oversizeFrames = new LongAdder();
+    private final int maxBroadcastFrames;
+    private final LongAdder droppedBroadcastFrames = new LongAdder();
+
+    private final AtomicBoolean clientListPending = new AtomicBoolean();
+    private volatile long lastClientListNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(CLIENT_LIST_INTERVAL_MILLIS);
+
+    public ChatServer(ServerConfig config, Consumer<String> log) {
+        this.config = config;
+        this.log = log;
+
+        clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        messageExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        maintenanceScheduler = Executors.newSingleThreadScheduledExecutor();
+
+        handshakePermits = new Semaphore(Math.max(1, config.getIntOption("handshake.maxConcurrent", 256)));
+        handshakeQueueTimeoutMillis = config.getIntOption("handshake.queueTimeout", 2000);
+        handshakeTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(config.getIntOption("handshake.timeout", 10));
+        maxFrameBytes = config.getIntOption("frame.maxBytes", FrameReader.DEFAULT_MAX_FRAME_BYTES);
+        maxBroadcastFrames = Math.max(1, config.getIntOption("outbound.maxBroadcastFrames", 10000));
+
+        heartbeatIntervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getIntOption("heartbeat.interval", 15)));
+        readTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getIntOption("heartbeat.readTimeout", 45)));
+        writeTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getIntOption("heartbeat.writeTimeout", 30)));
+        heartbeatTimer = new HashedWheelTimer("heartbeat-timer", 100, TimeUnit.MILLISECONDS, 512, log);
+
+        startCapture();
+    }
+
+    /**
+     * Starts an accept loop on {@code listener} that hands each connection to the handshake
+     * executor. The listener is closed by {@link #shutdown()}.
+     */
+    public void listen(ConnectionListener listener) {
+        listeners.add(listener);
+        acceptClients(listener);
+    }
+
+    public AcceptStats getAcceptStats() {
+        return acceptStats;
+    }
+
+    public long getOversizeFrames() {
+        return oversizeFrames.sum();
+    }
+
+    public long getDroppedBroadcastFrames() {
+        return droppedBroadcastFrames.sum();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public List<RosterEntry> rosterSnapshot() {
+        List<RosterEntry> snapshot = new ArrayList<>(clients.size());
+        clients.forEach((name, client) -> snapshot.add(client.snapshot(name)));
+        return snapshot;
+    }
+
+    /**
+     * Drains the server in stages:
+     * <ol>
+     * <li>close the listeners and send every client {@code SERVER_SHUTDOWN <delayMillis>},
+     * a reconnect delay with random jitter so clients do not all return at once;</li>
+     * <li>until {@code shutdown.deadline}, wait for clients to acknowledge with
+     * {@code CLIENT_DISCONNECT}, after which they send nothing more, and for every message
+     * already read to finish its fan-out. A client that never acknowledges counts as drained
+     * once its queue is written out and it has gone quiet;</li>
+     * <li>close the outbound queues in batches of {@code shutdown.batchSize}, letting each
+     * writer flush what is queued before it closes its connection. This stage has its own
+     * budget of {@code shutdown.flushTimeout}, after which the remaining connections are
+     * closed without waiting.</li>
+     * </ol>
+     * Blocks until the engine has stopped; calls after the first return immediately.
+     */
+    public void shutdown() {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(config.getIntOption("shutdown.deadline", 10));
+        isRunning = false;
+
+        for (ConnectionListener listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                log.accept("Error closing listener " + listener.getLocalAddress() + ": " + e.getMessage());
+            }
+        }
+
+        clients.values().forEach(this::sendShutdownNotice);
+        log.accept("Draining " + clients.size() + " clients: stopped accepting and sent shutdown notices");
+
+        boolean acknowledged = awaitUntil(deadlineNanos,
+                () -> clients.values().stream().allMatch(this::isDrained));
+        boolean dispatched = awaitUntil(deadlineNanos, () -> inFlightMessages.get() == 0);
+        if (!acknowledged || !dispatched) {
+            long unacknowledged = clients.values().stream().filter(client -> !isDrained(client)).count();
+            log.accept("Drain deadline passed: " + unacknowledged + " clients did not acknowledge, "
+                    + inFlightMessages.get() + " messages still dispatching");
+        }
+
+        long flushDeadlineNanos = System.nanoTime()
+                + TimeUnit.SECONDS.toNanos(config.getIntOption("shutdown.flushTimeout", 5));
+
+        int batchSize = Math.max(1, config.getIntOption("shutdown.batchSize", 500));
+        int closed = 0;
+        int forced = 0;
+        while (!clients.isEmpty()) {
+            List<ClientInfo> batch = new ArrayList<>(batchSize);
+            for (Map.Entry<String, ClientInfo> client : clients.entrySet()) {
+                if (batch.size() == batchSize) {
+                    break;
+                }
+                if (clients.remove(client.getKey(), client.getValue())) {
+                    client.getValue().outbound.close();
+                    batch.add(client.getValue());
+                }
+            }
+
+            awaitUntil(flushDeadlineNanos, () -> batch.stream().allMatch(client -> client.writerFinished));
+            for (ClientInfo client : batch) {
+                if (!client.writerFinished) {
+                    forced++;
+                    closeQuietly(client.connection);
+                }
+            }
+            closed += batch.size();
+        }
+
+        clientExecutor.shutdown();
+        messageExecutor.shutdown();
+        maintenanceScheduler.shutdown();
+        heartbeatTimer.close();
+
+        if (capture != null) {
+            try {
+                capture.close();
+            } catch (IOException e) {
+                log.accept("Error closing traffic capture: " + e.getMessage());
+            }
+        }
+
+        log.accept(String.format("Server shut down in %.1fs: %d connections drained, %d closed at the flush timeout",
+                (System.nanoTime() - startNanos) / 1e9, closed - forced, forced));
+    }
+
+    /**
+     * A client is drained once it has acknowledged the shutdown notice. Older clients never
+     * do, so one that has sent nothing for a short while after its notice was written out is
+     * treated as drained too. The notice is queued before the first check, so the first time
+     * the queue is seen idle marks when it left.
+     */
+    private boolean isDrained(ClientInfo client) {
+        if (client.inputFinished) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (client.noticeWrittenNanos == 0) {
+            if (!client.outbound.isIdle()) {
+                return false;
+            }
+            client.noticeWrittenNanos = now;
+        }
+        return now - Math.max(client.noticeWrittenNanos, client.lastReadNanos) >= DRAIN_QUIET_NANOS;
+    }
+
+    private void sendShutdownNotice(ClientInfo clientInfo) {
+        long delayMillis = config.getIntOption("shutdown.reconnectDelay", 2000)
+                + ThreadLocalRandom.current().nextLong(Math.max(1, config.getIntOption("shutdown.reconnectJitter", 5000)));
+        clientInfo.outbound.offerLatest(OutboundQueue.Lane.CONTROL, "SERVER_SHUTDOWN",
+                OutboundQueue.encode("SERVER_SHUTDOWN " + delayMillis));
+    }
+
+    private boolean awaitUntil(long deadlineNanos, BooleanSupplier condition) {
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() >= deadlineNanos) {
+                return false;
+            }
+            try {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startCapture() {
+        String captureFile = config.getOption("capture.file", "");
+        if (captureFile.isEmpty()) {
+            return;
+        }
+
+        try {
+            capture = new TrafficCapture(new File(captureFile), log);
+            maintenanceScheduler.scheduleAtFixedRate(capture::flush, 1, 1, TimeUnit.SECONDS);
+            log.accept("Capturing inbound traffic to " + captureFile);
+        } catch (IOException e) {
+            log.accept("Error starting traffic capture: " + e.getMessage());
+        }
+    }
+
+    private void scheduleHeartbeat(String clientName, ClientInfo clientInfo) {
+        heartbeatTimer.schedule(() -> checkHeartbeat(clientName, clientInfo),
+                heartbeatIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void checkHeartbeat(String clientName, ClientInfo clientInfo) {
+        if (clients.get(clientName) != clientInfo) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long idleNanos = now - clientInfo.lastReadNanos;
+        if (idleNanos >= readTimeoutNanos) {
+            evictClient(clientName, clientInfo, "no data for " + TimeUnit.NANOSECONDS.toSeconds(idleNanos) + "s");
+            return;
+        }
+
+        long stallNanos = clientInfo.outbound.getWriteStallNanos(now);
+        if (stallNanos >= writeTimeoutNanos) {
+            evictClient(clientName, clientInfo, "write stalled for " + TimeUnit.NANOSECONDS.toSeconds(stallNanos) + "s");
+            return;
+        }
+
+        reportDroppedFrames(clientName, clientInfo);
+        if (idleNanos >= heartbeatIntervalNanos) {
+            clientInfo.outbound.offerLatest(OutboundQueue.Lane.CONTROL, "PING", PING_FRAME);
+        }
+        scheduleHeartbeat(clientName, clientInfo);
+    }
+
+    /**
+     * Logs and counts broadcasts dropped for a client since the last report. Called from its
+     * heartbeat check and once more when it disconnects, so a slow reader logs at most one
+     * line per heartbeat interval.
+     */
+    private void reportDroppedFrames(String clientName, ClientInfo clientInfo) {
+        long dropped;
+        synchronized (clientInfo) {
+            dropped = clientInfo.outbound.getFramesDropped() - clientInfo.reportedDroppedFrames;
+            clientInfo.reportedDroppedFrames += dropped;
+        }
+        if (dropped > 0) {
+            droppedBroadcastFrames.add(dropped);
+            log.accept("Dropped " + dropped + " broadcast frames for " + clientName
+                    + ": more than " + maxBroadcastFrames + " queued");
+        }
+    }
+
+    private void evictClient(String clientName, ClientInfo clientInfo, String reason) {
+        messageExecutor.submit(() -> {
+            log.accept("Evicting " + clientName + ": " + reason);
+            handleClientDisconnect(clientName, clientInfo);
+        });
+    }
+
+    private void acceptClients(ConnectionListener listener) {
+        CompletableFuture.runAsync(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    Connection connection = listener.accept();
+                    acceptStats.onAccepted();
+                    long acceptedNanos = System.nanoTime();
+                    clientExecutor.submit(() -> admitClient(connection, acceptedNanos));
+                } catch (IOException e) {
+                    if (isRunning && !listener.isClosed()) {
+                        log.accept("Error accepting client: " + e.getMessage());
+                    }
+                }
+            }
+        }, clientExecutor);
+    }
+
+    private void admitClient(Connection connection, long acceptedNanos) {
+        acceptStats.onQueued();
+        boolean admitted;
+        try {
+            admitted = handshakePermits.tryAcquire(handshakeQueueTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            admitted = false;
+        } finally {
+            acceptStats.onDequeued();
+        }
+
+        if (!admitted) {
+            acceptStats.onRejected();
+            try {
+                connection.getOutputStream().write(OutboundQueue.encode("SERVER_BUSY"));
+            } catch (IOException e) {
+                // Ignore
+            }
+            closeQuietly(connection);
+            return;
+        }
+
+        acceptStats.onHandshakeStarted();
+        handleClient(connection, acceptedNanos);
+    }
+
+    private void finishHandshake(long acceptedNanos) {
+        acceptStats.onHandshakeFinished(acceptedNanos);
+        handshakePermits.release();
+    }
+
+    private void handleClient(Connection connection, long acceptedNanos) {
+        String clientName = null;
+        ClientInfo registeredClient = null;
+        boolean handshakeFinished = false;
+        long connectionId = connectionIds.incrementAndGet();
+        if (capture != null) {
+            capture.recordConnect(connectionId);
+        }
+        FrameReader reader = null;
+        try {
+            reader = new FrameReader(connection.getInputStream(), maxFrameBytes);
+            OutputStream output = new BufferedOutputStream(connection.getOutputStream());
+
+            connection.setReadTimeout(handshakeTimeoutMillis);
+            clientName = reader.readLine();
+            if (clientName == null) {
+                connection.close();
+                return;
+            }
+            if (capture != null) {
+                capture.recordLine(connectionId, clientName);
+            }
+
+            ClientInfo clientInfo = new ClientInfo(connection, new OutboundQueue(clientName, maxBroadcastFrames));
+            clientInfo.send(OutboundQueue.Lane.CONTROL, "USERNAME_OK");
+
+            if (clients.putIfAbsent(clientName, clientInfo) != null) {
+                output.write(OutboundQueue.encode("USERNAME_TAKEN"));
+                output.flush();
+                log.accept("Connection rejected: username '" + clientName + "' is already taken");
+                connection.close();
+                return;
+            }
+
+            registeredClient = clientInfo;
+            connection.setReadTimeout(0);
+            finishHandshake(acceptedNanos);
+            handshakeFinished = true;
+            clientExecutor.submit(() -> runWriter(clientInfo, output));
+            if (draining.get()) {
+                sendShutdownNotice(clientInfo);
+            }
+
+            log.accept("Client connected: " + clientName + " " + clientInfo.address);
+            sendClientList();
+            scheduleHeartbeat(clientName, clientInfo);
+
+            String message;
+            while ((message = reader.readLine()) != null) {
+                clientInfo.lastReadNanos = System.nanoTime();
+                clientInfo.messagesIn.incrementAndGet();
+                if (capture != null) {
+                    capture.recordLine(connectionId, message);
+                }
+                if (draining.get() && message.equals("CLIENT_DISCONNECT")) {
+                    // Acknowledges SERVER_SHUTDOWN; the client keeps reading until its queue is flushed
+                    break;
+                }
+                if (draining.get() && clients.get(clientName) != clientInfo) {
+                    // Already closed by the drain; there is no one left to deliver this to
+                    break;
+                }
+                if (message.equals("PONG")) {
+                    // Only refreshes lastReadNanos; not a message worth tracing
+                    continue;
+                }
+                long messageId = messageIds.incrementAndGet();
+                MessageEvents.Received received = new MessageEvents.Received();
+                if (received.isEnabled()) {
+                    received.messageId = messageId;
+                    received.sender = clientName;
+                    int space = message.indexOf(' ');
+                    received.command = space < 0 ? message : message.substring(0, space);
+                    received.length = message.length();
+                    received.commit();
+                }
+                handleMessage(clientName, clientInfo, message, messageId);
+            }
+        } catch (FrameReader.FrameTooLongException e) {
+            oversizeFrames.increment();
+            log.accept("Closing connection from " + connection.getRemoteAddress()
+                    + (clientName != null ? " (" + clientName + ")" : "") + ": " + e.getMessage());
+            closeQuietly(connection);
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            if (!handshakeFinished) {
+                finishHandshake(acceptedNanos);
+                closeQuietly(connection);
+            }
+            if (capture != null) {
+                capture.recordDisconnect(connectionId);
+            }
+            if (registeredClient != null) {
+                registeredClient.inputFinished = true;
+                reportDroppedFrames(clientName, registeredClient);
+            }
+            if (registeredClient != null && !draining.get() && clients.remove(clientName, registeredClient)) {
+                registeredClient.outbound.close();
+                log.accept("Client disconnected: " + clientName + " " + registeredClient.address);
+                sendClientList();
+            }
+        }
+    }
+
+
+    private void runWriter(ClientInfo clientInfo, OutputStream output) {
+        try {
+            clientInfo.outbound.drainTo(output);
+        } catch (IOException | InterruptedException e) {
+            // Connection lost; the reader loop will notice and run the disconnect path
+        } finally {
+            closeQuietly(clientInfo.connection);
+            clientInfo.writerFinished = true;
+        }
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Dispatches on {@code messageExecutor}, chained per sender so that one client's messages
+     * are fanned out in the order they were read.
+     */
+    private void handleMessage(String clientName, ClientInfo clientInfo, String message, long messageId) {
+        MessageEvents.Dispatch dispatch = new MessageEvents.Dispatch();
+        dispatch.begin();
+        inFlightMessages.incrementAndGet();
+        clientInfo.lastDispatch = clientInfo.lastDispatch.thenRunAsync(() -> {
+            dispatch.end();
+            if (dispatch.shouldCommit()) {
+                dispatch.messageId = messageId;
+                dispatch.commit();
+            }
+
+            try {
+                dispatchMessage(clientName, message, messageId);
+            } catch (RuntimeException e) {
+                log.accept("Error dispatching message from " + clientName + ": " + e);
+            } finally {
+                inFlightMessages.decrementAndGet();
+            }
+        }, messageExecutor);
+    }
+
+    private void dispatchMessage(String clientName, String message, long messageId) {
+        ClientInfo sender = clients.get(clientName);
+        if (sender == null) {
+            // Disconnected, or closed by a drain, before this message was dispatched
+            return;
+        }
+
+        if (message.equals("CLIENT_DISCONNECT")) {
+            handleClientDisconnect(clientName);
+            return;
+        }
+
+        if (message.equals("REQUEST_USER_LIST")) {
+            sendClientList();
+            return;
+        }
+
+        String actualMessage = extractActualMessage(message);
+        MessageEvents.Filter filter = new MessageEvents.Filter();
+        filter.begin();
+        boolean blocked = containsBannedPhrase(actualMessage);
+        filter.end();
+        if (filter.shouldCommit()) {
+            filter.messageId = messageId;
+            filter.blocked = blocked;
+            filter.commit();
+        }
+
+        if (blocked) {
+            sender.send(OutboundQueue.Lane.CONTROL, "MESSAGE_PERSONAL Server: Your message contains banned content", messageId);
+            log.accept("Blocked message from " + clientName + " (banned content): " + actualMessage);
+            return;
+        }
+
+        if (message.startsWith("MESSAGE_ALL ")) {
+            String content = message.substring(12);
+            broadcastMessage(clientName, sender, content, messageId);
+        } else if (message.startsWith("MESSAGE_TO ")) {
+            String[] parts = message.substring(11).split(": ", 2);
+            if (parts.length == 2) {
+                sendPersonalMessage(clientName, sender, parts[0], parts[1], messageId);
+            }
+        } else if (message.startsWith("MESSAGE_TO_MULTIPLE ")) {
+            String[] parts = message.substring(19).split(": ", 2);
+            if (parts.length == 2) {
+                String[] recipients = parts[0].split(",");
+                sendPersonalMessageToMultiple(clientName, sender, recipients, parts[1], messageId);
+            }
+        } else if (message.startsWith("MESSAGE_EXCEPT ")) {
+            String[] parts = message.substring(14).split(": ", 2);
+            if (parts.length == 2) {
+                broadcastMessageExcept(clientName, sender, parts[0], parts[1], messageId);
+            }
+        }
+    }
+
+    private void sendPersonalMessageToMultiple(String sender, ClientInfo senderInfo, String[] recipients, String message, long messageId) {
+        List<String> successfulRecipients = new ArrayList<>();
+        byte[] frame = OutboundQueue.encode("MESSAGE_PERSONAL from " + sender + ": " + message);
+
+        for (String recipient : recipients) {
+            recipient = recipient.trim();
+            ClientInfo recipientInfo = clients.get(recipient);
+            if (recipientInfo != null) {
+                recipientInfo.send(OutboundQueue.Lane.DIRECT, frame, messageId);
+                successfulRecipients.add(recipient);
+            }
+        }
+
+        if (!successfulRecipients.isEmpty()) {
+            String recipientsList = String.join(", ", successfulRecipients);
+            senderInfo.send(OutboundQueue.Lane.DIRECT, "MESSAGE_PERSONAL To [" + recipientsList + "]: " + message, messageId);
+            log.accept("Personal message from " + sender + " to [" + recipientsList + "]: " + message);
+        } else {
+            senderInfo.send(OutboundQueue.Lane.CONTROL, "MESSAGE_PERSONAL Server: None of the selected users were found", messageId);
+            log.accept("Failed to send message from " + sender + ": no valid recipients");
+        }
+    }
+
+
+    private void broadcastMessageExcept(String sender, ClientInfo senderInfo, String excludeUser, String message, long messageId) {
+        Optional<String> actualExcludeUser = clients.keySet()
+                .stream()
+                .filter(name -> name.equalsIgnoreCase(excludeUser.trim()))
+                .findFirst();
+
+        if (actualExcludeUser.isPresent()) {
+            String excludeName = actualExcludeUser.get();
+            String fullMessage = "MESSAGE_EXCEPT " + sender + " (except " + excludeName + "): " + message;
+            byte[] frame = OutboundQueue.encode(fullMessage);
+
+            clients.forEach((name, client) -> {
+                if (!name.equals(excludeName)) {
+                    client.send(OutboundQueue.Lane.BROADCAST, frame, messageId);
+                }
+            });
+            log.accept("Message from " + sender + " to all except " + excludeName + ": " + message);
+        } else {
+            senderInfo.send(OutboundQueue.Lane.CONTROL, "MESSAGE_PERSONAL Server: User '" + excludeUser + "' not found", messageId);
+            log.accept("Failed to send message from " + sender + ": user '" + excludeUser + "' not found");
+        }
+    }
+
+
+    private void broadcastMessage(String sender, ClientInfo senderInfo, String message, long messageId) {
+        byte[] frame = OutboundQueue.encode("MESSAGE_ALL " + sender + ": " + message);
+        clients.forEach((name, client) -> {
+            if (!name.equals(sender)) {
+                client.send(OutboundQueue.Lane.BROADCAST, frame, messageId);
+            }
+        });
+        senderInfo.send(OutboundQueue.Lane.BROADCAST, frame, messageId);
+        log.accept("Message from " + sender + " to all: " + message);
+    }
+
+    private void sendPersonalMessage(String sender, ClientInfo senderInfo, String recipient, String message, long messageId) {
+        Optional<String> actualRecipient = clients.keySet()
+                .stream()
+                .filter(name -> name.equalsIgnoreCase(recipient.trim()))
+                .findFirst();
+
+        if (actualRecipient.isPresent()) {
+            ClientInfo recipientInfo = clients.get(actualRecipient.get());
+            recipientInfo.send(OutboundQueue.Lane.DIRECT, "MESSAGE_PERSONAL from " + sender + ": " + message, messageId);
+            senderInfo.send(OutboundQueue.Lane.DIRECT, "MESSAGE_PERSONAL To " + actualRecipient.get() + ": " + message, messageId);
+            log.accept("Private message from " + sender + " to " + actualRecipient.get() + ": " + message);
+        } else {
+            senderInfo.send(OutboundQueue.Lane.CONTROL, "MESSAGE_PERSONAL Server: User '" + recipient + "' not found", messageId);
+            log.accept("Failed to send message from " + sender + ": user '" + recipient + "' not found");
+        }
+    }
+
+    private String extractActualMessage(String message) {
+        if (message.startsWith("MESSAGE_ALL ")) {
+            return message.substring(12);
+        } else if (message.startsWith("MESSAGE_TO ")) {
+            String[] parts = message.substring(11).split(": ", 2);
+            return parts.length == 2 ? parts[1] : "";
+        } else if (message.startsWith("MESSAGE_TO_MULTIPLE ")) {
+            String[] parts = message.substring(19).split(": ", 2);
+            return parts.length == 2 ? parts[1] : "";
+        } else if (message.startsWith("MESSAGE_EXCEPT ")) {
+            String[] parts = message.substring(14).split(": ", 2);
+            return parts.length == 2 ? parts[1] : "";
+        }
+        return message;
+    }
+
+    private boolean containsBannedPhrase(String message) {
+        String lowerCaseMessage = message.toLowerCase();
+        return config.getBannedPhrases().stream().anyMatch(bannedPhrase -> lowerCaseMessage.contains(" " + bannedPhrase + " ")
+                || lowerCaseMessage.startsWith(bannedPhrase + " ") || lowerCaseMessage.endsWith(" " + bannedPhrase) || lowerCaseMessage.equals(bannedPhrase));
+    }
+
+
+    private void handleClientDisconnect(String clientName) {
+        ClientInfo clientInfo = clients.get(clientName);
+        if (clientInfo != null) {
+            handleClientDisconnect(clientName, clientInfo);
+        }
+    }
+
+    private void handleClientDisconnect(String clientName, ClientInfo clientInfo) {
+        if (clients.remove(clientName, clientInfo)) {
+            clientInfo.outbound.close();
+            try {
+                clientInfo.connection.close();
+            } catch (IOException e) {
+                log.accept("Error closing socket for " + clientName);
+            }
+            log.accept("Client disconnected: " + clientName);
+            sendClientList();
+        }
+    }
+
+    /**
+     * Schedules a roster update for every client. Calls made while one is pending are merged
+     * into it, and updates go out at most once per {@code CLIENT_LIST_INTERVAL_MILLIS}, so a
+     * burst of logins or disconnects costs a few rebuilds instead of one per event.
+     */
+    private void sendClientList() {
+        if (draining.get()) {
+            return;
+        }
+        if (clientListPending.compareAndSet(false, true)) {
+            long waitNanos = lastClientListNanos + TimeUnit.MILLISECONDS.toNanos(CLIENT_LIST_INTERVAL_MILLIS)
+                    - System.nanoTime();
+            if (waitNanos <= 0) {
+                messageExecutor.submit(this::publishClientList);
+            } else {
+                heartbeatTimer.schedule(() -> messageExecutor.submit(this::publishClientList),
+                        waitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void publishClientList() {
+        clientListPending.set(false);
+        lastClientListNanos = System.nanoTime();
+        String[] names = clients.keySet().toArray(new String[0]);
+
+        ByteArrayOutputStream roster = new ByteArrayOutputStream(16 + names.length * 16);
+        int[] nameStarts = new int[names.length];
+        int[] nameEnds = new int[names.length];
+        roster.writeBytes("CLIENT_LIST ".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                roster.writeBytes(", ".getBytes(StandardCharsets.UTF_8));
+            }
+            nameStarts[i] = roster.size();
+            roster.writeBytes(names[i].getBytes(StandardCharsets.UTF_8));
+            nameEnds[i] = roster.size();
+        }
+        roster.write('\n');
+        byte[] frame = roster.toByteArray();
+
+        // Each client gets the shared roster with its own name (and one separator) cut out
+        for (int i = 0; i < names.length; i++) {
+            ClientInfo clientInfo = clients.get(names[i]);
+            if (clientInfo == null) {
+                continue;
+            }
+            int gapStart = i + 1 < names.length ? nameStarts[i] : (i > 0 ? nameEnds[i - 1] : nameStarts[i]);
+            int gapEnd = i + 1 < names.length ? nameStarts[i + 1] : nameEnds[i];
+            clientInfo.outbound.offerLatest(OutboundQueue.Lane.CONTROL, "CLIENT_LIST", frame, gapStart, gapEnd);
+        }
+    }
+}
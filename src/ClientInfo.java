@@ -0,0 +1,45 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+class ClientInfo {
+    final Connection connection;
+    final OutboundQueue outbound;
+    final String address;
+    final long connectedSince;
+    final AtomicLong messagesIn = new AtomicLong();
+    volatile long lastReadNanos = System.nanoTime();
+    volatile boolean inputFinished;
+    volatile boolean writerFinished;
+    long noticeWrittenNanos;
+    long reportedDroppedFrames;
+    // Tail of this client's dispatch chain; only touched by its reader thread
+    CompletableFuture<Void> lastDispatch = CompletableFuture.completedFuture(null);
+
+    public ClientInfo(Connection connection, OutboundQueue outbound) {
+        this.connection = connection;
+        this.outbound = outbound;
+        this.address = connection.getRemoteAddress();
+        this.connectedSince = System.currentTimeMillis();
+    }
+
+    public void send(OutboundQueue.Lane lane, String line) {
+        outbound.offer(lane, OutboundQueue.encode(line));
+    }
+
+    public void send(OutboundQueue.Lane lane, byte[] frame) {
+        outbound.offer(lane, frame);
+    }
+
+    public void send(OutboundQueue.Lane lane, String line, long messageId) {
+        outbound.offer(lane, OutboundQueue.encode(line), messageId);
+    }
+
+    public void send(OutboundQueue.Lane lane, byte[] frame, long messageId) {
+        outbound.offer(lane, frame, messageId);
+    }
+
+    public RosterEntry snapshot(String name) {
+        return new RosterEntry(name, address, connectedSince, messagesIn.get(),
+                outbound.getFramesWritten(), outbound.getBytesWritten(), outbound.size());
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+
+/**
+ * Bounded queue of outgoing client lines, drained by a single writer thread so the Swing
+ * event thread never touches the socket. Chat messages stay queued until a flush containing
+ * them succeeds, so after a dropped connection they can be sent again on the next one.
+ * Control lines (such as {@code PONG}) jump ahead of chat and are not retried.
+ */
+class ClientSendQueue {
+    private static final int MAX_BATCH_LINES = 64;
+
+    private final int capacity;
+    private final Runnable onSizeChanged;
+    private final ArrayDeque<String> messages = new ArrayDeque<>();
+    private final ArrayDeque<String> controlLines = new ArrayDeque<>();
+    private String finalLine;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private boolean closed;
+
+    public ClientSendQueue(int capacity, Runnable onSizeChanged) {
+        this.capacity = capacity;
+        this.onSizeChanged = onSizeChanged;
+    }
+
+    /**
+     * Queues a chat line without blocking. Returns {@code false} if the queue is full.
+     */
+    public boolean offer(String line) {
+        lock.lock();
+        try {
+            if (closed || messages.size() >= capacity) {
+                return false;
+            }
+            messages.add(line);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        onSizeChanged.run();
+        return true;
+    }
+
+    public void offerControl(String line) {
+        lock.lock();
+        try {
+            if (!closed) {
+                controlLines.add(line);
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes {@code line} after the control lines already queued and then makes
+     * {@link #drainTo} return, leaving chat lines queued for the next connection.
+     */
+    public void stopAfter(String line) {
+        lock.lock();
+        try {
+            finalLine = line;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops control lines left over from a previous connection.
+     */
+    public void resetControlLines() {
+        lock.lock();
+        try {
+            controlLines.clear();
+            finalLine = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for the writer to flush the queued chat lines, then
+     * closes the queue. Returns the number of chat lines that were still unsent.
+     */
+    public int close(long timeoutMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!messages.isEmpty() && remainingNanos > 0) {
+                remainingNanos = flushed.awaitNanos(remainingNanos);
+            }
+            closed = true;
+            notEmpty.signalAll();
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes queued lines to {@code out} in batches, one flush per batch, until the queue is
+     * closed. A failed write leaves the unflushed chat lines at the head of the queue.
+     */
+    public void drainTo(Writer out) throws IOException, InterruptedException {
+        List<String> batch = new ArrayList<>(MAX_BATCH_LINES);
+        while (true) {
+            int chatLines = 0;
+            boolean stopping = false;
+            lock.lock();
+            try {
+                while (messages.isEmpty() && controlLines.isEmpty() && finalLine == null && !closed) {
+                    notEmpty.await();
+                }
+                if (closed) {
+                    return;
+                }
+                while (!controlLines.isEmpty() && batch.size() < MAX_BATCH_LINES) {
+                    batch.add(controlLines.poll());
+                }
+                if (finalLine != null) {
+                    batch.add(finalLine);
+                    finalLine = null;
+                    stopping = true;
+                } else {
+                    for (String message : messages) {
+                        if (batch.size() >= MAX_BATCH_LINES) {
+                            break;
+                        }
+                        batch.add(message);
+                        chatLines++;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (String line : batch) {
+                out.write(line);
+                out.write('\n');
+            }
+            out.flush();
+            batch.clear();
+
+            if (stopping) {
+                return;
+            }
+            if (chatLines > 0) {
+                lock.lock();
+                try {
+                    for (int i = 0; i < chatLines; i++) {
+                        messages.poll();
+                    }
+                    flushed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                onSizeChanged.run();
+            }
+        }
+    }
+}
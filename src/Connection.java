@@ -0,0 +1,23 @@
+import java.io.*;
+
+/**
+ * One accepted client connection, independent of how the bytes travel. {@link SocketTransport}
+ * wraps a TCP socket; {@link LoopbackTransport} connects to the server in memory.
+ */
+interface Connection extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Makes reads fail with {@link java.net.SocketTimeoutException} after this many
+     * milliseconds without data; {@code 0} waits forever.
+     */
+    void setReadTimeout(int millis) throws IOException;
+
+    /**
+     * Peer address as {@code host:port}, as shown on the dashboard.
+     */
+    String getRemoteAddress();
+}
@@ -0,0 +1,14 @@
+import java.io.*;
+
+/**
+ * Source of incoming connections for {@link ChatServer}. {@link #accept()} blocks until a
+ * client connects and throws once the listener is closed.
+ */
+interface ConnectionListener extends Closeable {
+
+    Connection accept() throws IOException;
+
+    boolean isClosed();
+
+    String getLocalAddress();
+}
@@ -0,0 +1,153 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads newline-terminated UTF-8 frames with a hard size limit. Unlike
+ * {@code BufferedReader.readLine()}, a peer that never sends a newline cannot make this
+ * reader buffer more than {@code maxFrameBytes}. Read buffers come from a shared pool and go
+ * back to it on {@link #close()}.
+ */
+class FrameReader implements Closeable {
+
+    static class FrameTooLongException extends IOException {
+        FrameTooLongException(int maxFrameBytes) {
+            super("Frame exceeds " + maxFrameBytes + " bytes");
+        }
+    }
+
+    static final int DEFAULT_MAX_FRAME_BYTES = 64 * 1024;
+
+    private static final int BUFFER_BYTES = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4096;
+    private static final ConcurrentLinkedQueue<byte[]> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final InputStream in;
+    private final int maxFrameBytes;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    private byte[] frame;
+    private int frameLength;
+
+    public FrameReader(InputStream in, int maxFrameBytes) {
+        this.in = in;
+        this.maxFrameBytes = maxFrameBytes;
+        this.buffer = acquireBuffer();
+    }
+
+    /**
+     * Returns the next frame without its line terminator, or {@code null} at end of stream.
+     *
+     * @throws FrameTooLongException if the frame is longer than the configured maximum
+     */
+    public String readLine() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Reader is closed");
+        }
+
+        frameLength = 0;
+        while (true) {
+            if (position == limit) {
+                int read = in.read(buffer, 0, buffer.length);
+                if (read < 0) {
+                    return frameLength > 0 ? takeFrame() : null;
+                }
+                position = 0;
+                limit = read;
+            }
+
+            int newline = indexOfNewline();
+            if (newline >= 0) {
+                int length = newline - position;
+                String line;
+                if (frameLength == 0) {
+                    checkLength(length);
+                    line = decode(buffer, position, length);
+                } else {
+                    appendToFrame(position, length);
+                    line = takeFrame();
+                }
+                position = newline + 1;
+                return line;
+            }
+
+            appendToFrame(position, limit - position);
+            position = limit;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            releaseBuffer(buffer);
+            buffer = null;
+            frame = null;
+        }
+    }
+
+    private int indexOfNewline() {
+        for (int i = position; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendToFrame(int offset, int length) throws FrameTooLongException {
+        checkLength(frameLength + length);
+        if (frame == null || frame.length < frameLength + length) {
+            int capacity = Math.min(maxFrameBytes, Math.max(BUFFER_BYTES * 2, (frameLength + length) * 2));
+            byte[] grown = new byte[capacity];
+            if (frame != null) {
+                System.arraycopy(frame, 0, grown, 0, frameLength);
+            }
+            frame = grown;
+        }
+        System.arraycopy(buffer, offset, frame, frameLength, length);
+        frameLength += length;
+    }
+
+    private String takeFrame() {
+        String line = decode(frame, 0, frameLength);
+        frameLength = 0;
+        if (frame.length > BUFFER_BYTES * 2) {
+            frame = null;
+        }
+        return line;
+    }
+
+    private void checkLength(int length) throws FrameTooLongException {
+        if (length > maxFrameBytes) {
+            throw new FrameTooLongException(maxFrameBytes);
+        }
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] pooled = BUFFER_POOL.poll();
+        if (pooled == null) {
+            return new byte[BUFFER_BYTES];
+        }
+        POOLED_BUFFERS.decrementAndGet();
+        return pooled;
+    }
+
+    private static void releaseBuffer(byte[] released) {
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.add(released);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
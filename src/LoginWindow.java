@@ -100,6 +100,9 @@ public class LoginWindow extends JFrame {
                 if (e.getMessage().contains("already taken")) {
                     JOptionPane.showMessageDialog(this,
                             "This username is already taken. Please choose another one.");
+                } else if (e.getMessage().contains("busy")) {
+                    JOptionPane.showMessageDialog(this,
+                            "The server is busy. Please try again in a few seconds.");
                 } else {
                     JOptionPane.showMessageDialog(this,
                             "Connection failed. Please check your connection settings");
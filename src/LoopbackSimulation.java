@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs {@link ChatServer} in-process over a {@link LoopbackTransport} and drives it with
+ * simulated clients: login, roster convergence, broadcast fan-out, personal message ordering,
+ * banned-phrase blocking, roster churn and a drain shutdown that must not lose messages. No
+ * sockets, ports or windows are involved.
+ *
+ * <p>Usage: {@code java LoopbackSimulation [clients] [broadcasts]}. Prints a timing report
+ * and exits with status 1 if any check fails.
+ */
+public class LoopbackSimulation {
+
+    private static final long PHASE_TIMEOUT_MILLIS = 60_000;
+    private static final int ORDERED_MESSAGES = 1000;
+    private static final int READ_BUFFER_BYTES = 2 * 1024;
+    private static final int LINE_HEAD_BYTES = 256;
+    private static final String BANNED_PHRASE = "spoiler";
+
+    private final class SimulatedClient {
+        final String name;
+        final Connection connection;
+        final OutputStream output;
+        final CountDownLatch login = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile String loginResponse;
+        volatile int rosterSize = -1;
+        final AtomicInteger broadcastsReceived = new AtomicInteger();
+        final AtomicInteger bannedNotices = new AtomicInteger();
+        final AtomicInteger orderedReceived = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        int lastSequence = -1;
+
+        SimulatedClient(String name, Connection connection) throws IOException {
+            this.name = name;
+            this.connection = connection;
+            this.output = connection.getOutputStream();
+        }
+
+        void send(String line) throws IOException {
+            synchronized (output) {
+                output.write(OutboundQueue.encode(line));
+            }
+        }
+
+        /**
+         * Reads lines without materializing full rosters: only the first
+         * {@code LINE_HEAD_BYTES} of each line are kept, and roster separators are counted
+         * as they stream past. 10k clients each holding a 10k-name roster string would need
+         * gigabytes of heap.
+         */
+        void listen() {
+            byte[] buffer = new byte[READ_BUFFER_BYTES];
+            byte[] head = new byte[LINE_HEAD_BYTES];
+            int headLength = 0;
+            int commas = 0;
+            try {
+                InputStream input = connection.getInputStream();
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    for (int i = 0; i < read; i++) {
+                        byte b = buffer[i];
+                        if (b == '\n') {
+                            onLine(new String(head, 0, headLength, StandardCharsets.UTF_8), commas);
+                            headLength = 0;
+                            commas = 0;
+                        } else {
+                            if (b == ',') {
+                                commas++;
+                            }
+                            if (headLength < LINE_HEAD_BYTES) {
+                                head[headLength++] = b;
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed
+            } finally {
+                login.countDown();
+                closed.countDown();
+            }
+        }
+
+        private void onLine(String line, int commas) throws IOException {
+            if (loginResponse == null) {
+                loginResponse = line;
+                login.countDown();
+            } else if (line.startsWith("CLIENT_LIST ")) {
+                rosterSize = line.length() == 12 ? 0 : commas + 1;
+            } else if (line.startsWith("MESSAGE_ALL ")) {
+                if (line.contains(BANNED_PHRASE)) {
+                    leakedBannedMessages.incrementAndGet();
+                } else {
+                    broadcastsReceived.incrementAndGet();
+                }
+            } else if (line.startsWith("MESSAGE_PERSONAL Server: Your message contains banned content")) {
+                bannedNotices.incrementAndGet();
+            } else if (line.startsWith("MESSAGE_PERSONAL from ")) {
+                int sequence = Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+                if (sequence < lastSequence) {
+                    outOfOrder.incrementAndGet();
+                }
+                lastSequence = sequence;
+                orderedReceived.incrementAndGet();
+            } else if (line.equals("PING")) {
+                send("PONG");
+            } else if (line.startsWith("SERVER_SHUTDOWN ")) {
+                shutdownNotices.incrementAndGet();
+                send("CLIENT_DISCONNECT");
+            }
+        }
+    }
+
+    private final int clientCount;
+    private final int broadcastCount;
+    private final ChatServer server;
+    private final LoopbackTransport transport;
+    private final List<SimulatedClient> clients = new ArrayList<>();
+    private final AtomicInteger leakedBannedMessages = new AtomicInteger();
+    private final AtomicInteger shutdownNotices = new AtomicInteger();
+    private final LongAdder serverLogLines = new LongAdder();
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int broadcastCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        if (clientCount < 4) {
+            System.err.println("Usage: java LoopbackSimulation [clients >= 4] [broadcasts]");
+            System.exit(1);
+        }
+
+        LoopbackSimulation simulation = new LoopbackSimulation(clientCount, broadcastCount);
+        try {
+            simulation.run();
+        } catch (IOException | InterruptedException e) {
+            simulation.failures.add("Simulation aborted: " + e);
+        } finally {
+            simulation.server.shutdown();
+        }
+
+        if (!simulation.failures.isEmpty()) {
+            simulation.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+        System.exit(0);
+    }
+
+    public LoopbackSimulation(int clientCount, int broadcastCount) {
+        this.clientCount = clientCount;
+        this.broadcastCount = broadcastCount;
+
+        Map<String, String> options = new HashMap<>();
+        options.put("handshake.maxConcurrent", String.valueOf(clientCount));
+        ServerConfig config = new ServerConfig("loopback", 0, List.of(BANNED_PHRASE), options);
+
+        server = new ChatServer(config, line -> serverLogLines.increment());
+        transport = new LoopbackTransport("simulation", clientCount);
+        server.listen(transport);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            SimulatedClient client = new SimulatedClient("user" + i, transport.connect());
+            clients.add(client);
+            Thread.ofVirtual().start(client::listen);
+            client.send(client.name);
+        }
+        for (SimulatedClient client : clients) {
+            client.login.await();
+        }
+        long rejected = clients.stream().filter(client -> !"USERNAME_OK".equals(client.loginResponse)).count();
+        report("Login of " + clientCount + " clients", start);
+        check(rejected == 0, rejected + " logins were not acknowledged with USERNAME_OK");
+
+        start = System.nanoTime();
+        awaitRoster(clients, clientCount - 1);
+        report("Roster convergence", start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < broadcastCount; i++) {
+            clients.get(i % clientCount).send("MESSAGE_ALL broadcast " + i);
+        }
+        long expectedFrames = (long) broadcastCount * clientCount;
+        boolean delivered = await(() -> clients.stream().mapToLong(c -> c.broadcastsReceived.get()).sum() >= expectedFrames);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Broadcast fan-out: %d messages, %d frames in %.3fs (%.0f frames/s)%n",
+                broadcastCount, expectedFrames, seconds, expectedFrames / seconds);
+        check(delivered, "broadcast frames were not all delivered");
+
+        SimulatedClient sender = clients.get(1);
+        SimulatedClient recipient = clients.get(2);
+        start = System.nanoTime();
+        for (int i = 0; i < ORDERED_MESSAGES; i++) {
+            sender.send("MESSAGE_TO " + recipient.name + ": seq " + i);
+        }
+        check(await(() -> recipient.orderedReceived.get() >= ORDERED_MESSAGES), "personal messages were not all delivered");
+        report("Personal messages: " + ORDERED_MESSAGES + " from " + sender.name + " to " + recipient.name
+                + ", " + recipient.outOfOrder.get() + " out of order", start);
+        check(recipient.outOfOrder.get() == 0,
+                recipient.outOfOrder.get() + " personal messages arrived out of order");
+
+        SimulatedClient offender = clients.get(3);
+        start = System.nanoTime();
+        offender.send("MESSAGE_ALL this is a " + BANNED_PHRASE);
+        check(await(() -> offender.bannedNotices.get() > 0), "sender of banned content got no notice");
+        report("Banned phrase blocked", start);
+        check(leakedBannedMessages.get() == 0, leakedBannedMessages.get() + " clients received banned content");
+
+        start = System.nanoTime();
+        List<SimulatedClient> leaving = clients.subList(clientCount / 2, clientCount);
+        for (SimulatedClient client : leaving) {
+            client.send("CLIENT_DISCONNECT");
+        }
+        List<SimulatedClient> staying = clients.subList(0, clientCount / 2);
+        awaitRoster(staying, staying.size() - 1);
+        report("Churn: " + leaving.size() + " clients left, roster converged", start);
+        check(server.getClientCount() == staying.size(),
+                "server has " + server.getClientCount() + " clients, expected " + staying.size());
+
+        long receivedBefore = staying.stream().mapToLong(client -> client.broadcastsReceived.get()).sum();
+        start = System.nanoTime();
+        for (int i = 0; i < broadcastCount; i++) {
+            staying.get(i % staying.size()).send("MESSAGE_ALL last words " + i);
+        }
+        server.shutdown();
+        for (SimulatedClient client : staying) {
+            client.closed.await();
+        }
+        report("Drain shutdown of " + staying.size() + " clients", start);
+        long lostFrames = (long) broadcastCount * staying.size()
+                - (staying.stream().mapToLong(client -> client.broadcastsReceived.get()).sum() - receivedBefore);
+        check(shutdownNotices.get() == staying.size(),
+                shutdownNotices.get() + " of " + staying.size() + " clients got SERVER_SHUTDOWN");
+        check(lostFrames == 0, lostFrames + " broadcast frames sent just before shutdown were lost");
+        check(server.getDroppedBroadcastFrames() == 0,
+                server.getDroppedBroadcastFrames() + " broadcast frames were dropped for slow readers");
+
+        System.out.println("Server log lines: " + serverLogLines.sum());
+    }
+
+    private void awaitRoster(List<SimulatedClient> group, int expectedSize) throws InterruptedException {
+        boolean converged = await(() -> group.stream().allMatch(client -> client.rosterSize == expectedSize));
+        check(converged, "roster did not converge to " + expectedSize + " names");
+    }
+
+    private boolean await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private void check(boolean condition, String failure) {
+        if (!condition) {
+            failures.add(failure);
+        }
+    }
+
+    private void report(String phase, long startNanos) {
+        System.out.printf("%s: %.3fs%n", phase, (System.nanoTime() - startNanos) / 1e9);
+    }
+}
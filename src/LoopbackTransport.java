@@ -0,0 +1,284 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+
+/**
+ * In-memory listener. {@link #connect()} creates a pair of bounded byte pipes, queues the
+ * server end for {@link #accept()} and returns the client end, so {@link ChatServer} can be
+ * driven without sockets or ports. Pipes behave like a TCP stream: writes block while the
+ * peer's buffer is full, and after {@code close()} the peer reads what was already written
+ * and then end of stream.
+ */
+class LoopbackTransport implements ConnectionListener {
+
+    private static final int INITIAL_PIPE_BYTES = 512;
+    private static final int MAX_PIPE_BYTES = 32 * 1024;
+
+    private static final class Pipe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition readable = lock.newCondition();
+        private final Condition writable = lock.newCondition();
+        private byte[] buffer = new byte[INITIAL_PIPE_BYTES];
+        private int head;
+        private int count;
+        private boolean closed;
+
+        int read(byte[] bytes, int offset, int length, int timeoutMillis) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (count == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    if (timeoutMillis == 0) {
+                        readable.await();
+                    } else if (remainingNanos <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    } else {
+                        remainingNanos = readable.awaitNanos(remainingNanos);
+                    }
+                }
+
+                int n = Math.min(length, count);
+                int first = Math.min(n, buffer.length - head);
+                System.arraycopy(buffer, head, bytes, offset, first);
+                System.arraycopy(buffer, 0, bytes, offset + first, n - first);
+                head = (head + n) % buffer.length;
+                count -= n;
+                if (count == 0 && buffer.length > INITIAL_PIPE_BYTES) {
+                    // Idle connections should not keep a burst-sized buffer
+                    buffer = new byte[INITIAL_PIPE_BYTES];
+                    head = 0;
+                }
+                writable.signal();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            lock.lock();
+            try {
+                while (length > 0) {
+                    if (closed) {
+                        throw new SocketException("Connection closed");
+                    }
+                    if (buffer.length - count < length && buffer.length < MAX_PIPE_BYTES) {
+                        grow(Math.min(MAX_PIPE_BYTES, Math.max(buffer.length * 2, count + length)));
+                    }
+                    int free = buffer.length - count;
+                    if (free == 0) {
+                        writable.await();
+                        continue;
+                    }
+
+                    int n = Math.min(length, free);
+                    int tail = (head + count) % buffer.length;
+                    int first = Math.min(n, buffer.length - tail);
+                    System.arraycopy(bytes, offset, buffer, tail, first);
+                    System.arraycopy(bytes, offset + first, buffer, 0, n - first);
+                    count += n;
+                    offset += n;
+                    length -= n;
+                    readable.signal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                readable.signalAll();
+                writable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void grow(int capacity) {
+            byte[] grown = new byte[capacity];
+            int first = Math.min(count, buffer.length - head);
+            System.arraycopy(buffer, head, grown, 0, first);
+            System.arraycopy(buffer, 0, grown, first, count - first);
+            buffer = grown;
+            head = 0;
+        }
+    }
+
+    private static final class LoopbackConnection implements Connection {
+        private final Pipe in;
+        private final Pipe out;
+        private final String remoteAddress;
+        private volatile int readTimeoutMillis;
+
+        private final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                return in.read(bytes, offset, length, readTimeoutMillis);
+            }
+
+            @Override
+            public void close() {
+                LoopbackConnection.this.close();
+            }
+        };
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                out.write(bytes, offset, length);
+            }
+
+            @Override
+            public void close() {
+                LoopbackConnection.this.close();
+            }
+        };
+
+        LoopbackConnection(Pipe in, Pipe out, String remoteAddress) {
+            this.in = in;
+            this.out = out;
+            this.remoteAddress = remoteAddress;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public void setReadTimeout(int millis) {
+            readTimeoutMillis = millis;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public void close() {
+            in.close();
+            out.close();
+        }
+    }
+
+    private final String name;
+    private final int backlog;
+    private final ArrayDeque<Connection> pending = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final AtomicLong connectionIds = new AtomicLong();
+    private boolean closed;
+
+    public LoopbackTransport(String name, int backlog) {
+        this.name = name;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Opens a connection to this listener and returns the client end.
+     *
+     * @throws ConnectException if the listener is closed or its backlog is full
+     */
+    public Connection connect() throws IOException {
+        Pipe toServer = new Pipe();
+        Pipe toClient = new Pipe();
+        Connection serverEnd = new LoopbackConnection(toServer, toClient, "loopback:" + connectionIds.incrementAndGet());
+        Connection clientEnd = new LoopbackConnection(toClient, toServer, getLocalAddress());
+
+        lock.lock();
+        try {
+            if (closed || pending.size() >= backlog) {
+                throw new ConnectException("Connection refused: " + getLocalAddress());
+            }
+            pending.add(serverEnd);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return clientEnd;
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        lock.lock();
+        try {
+            while (pending.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            if (closed) {
+                throw new SocketException("Listener closed");
+            }
+            return pending.poll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getLocalAddress() {
+        return "loopback:" + name;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Connection connection : pending) {
+                ((LoopbackConnection) connection).close();
+            }
+            pending.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events that trace a chat message from the line being read in
+ * {@code handleClient} to each recipient's socket write. All events carry the message id
+ * assigned when the line was read, so {@link MessageTraceReport} can stitch them together.
+ *
+ * <p>Callers check {@code isEnabled()}/{@code shouldCommit()} before filling in fields, so
+ * nothing beyond a few no-op calls happens unless a recording is running.
+ */
+final class MessageEvents {
+
+    private MessageEvents() {
+    }
+
+    @Name("messenger.MessageReceived")
+    @Label("Message Received")
+    @Category({"Messenger", "Message Lifecycle"})
+    @StackTrace(false)
+    static class Received extends Event {
+        @Label("Message Id")
+        long messageId;
+
+        @Label("Sender")
+        String sender;
+
+        @Label("Command")
+        String command;
+
+        @Label("Length")
+        @DataAmount
+        int length;
+    }
+
+    @Name("messenger.MessageDispatch")
+    @Label("Message Dispatch Queueing")
+    @Description("Time between a message being read and its dispatch starting, behind earlier messages from the same sender")
+    @Category({"Messenger", "Message Lifecycle"})
+    @StackTrace(false)
+    static class Dispatch extends Event {
+        @Label("Message Id")
+        long messageId;
+    }
+
+    @Name("messenger.BannedPhraseCheck")
+    @Label("Banned Phrase Check")
+    @Category({"Messenger", "Message Lifecycle"})
+    @StackTrace(false)
+    static class Filter extends Event {
+        @Label("Message Id")
+        long messageId;
+
+        @Label("Blocked")
+        boolean blocked;
+    }
+
+    @Name("messenger.RecipientEnqueue")
+    @Label("Recipient Enqueue")
+    @Description("Queueing one frame for one recipient in a broadcast or personal message")
+    @Category({"Messenger", "Message Lifecycle"})
+    @StackTrace(false)
+    static class RecipientEnqueue extends Event {
+        @Label("Message Id")
+        long messageId;
+
+        @Label("Recipient")
+        String recipient;
+
+        @Label("Lane")
+        String lane;
+
+        @Label("Backlog")
+        int backlog;
+    }
+
+    @Name("messenger.FrameDelivered")
+    @Label("Frame Delivered")
+    @Description("A frame written to a recipient's socket, with the time it spent queued")
+    @Category({"Messenger", "Message Lifecycle"})
+    @StackTrace(false)
+    static class FrameDelivered extends Event {
+        @Label("Message Id")
+        long messageId;
+
+        @Label("Recipient")
+        String recipient;
+
+        @Label("Lane")
+        String lane;
+
+        @Label("Queue Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueTime;
+    }
+
+    @Name("messenger.SlowSocketWrite")
+    @Label("Slow Socket Write")
+    @Description("A batch write and flush to a client socket that blocked past the threshold")
+    @Category({"Messenger", "Socket"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class SlowSocketWrite extends Event {
+        @Label("Recipient")
+        String recipient;
+
+        @Label("Frames")
+        int frames;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Virtual Thread")
+        boolean virtualThread;
+    }
+}
@@ -0,0 +1,211 @@
+import jdk.jfr.consumer.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Turns a JFR recording of the server into per-stage latency breakdowns using the events
+ * in {@link MessageEvents}.
+ *
+ * <p>Record with {@code java -XX:StartFlightRecording=filename=server.jfr MyServer} (or
+ * {@code jcmd <pid> JFR.start}), then run {@code java MessageTraceReport server.jfr [top]}.
+ */
+public class MessageTraceReport {
+
+    private static class Trace {
+        final long messageId;
+        String sender = "?";
+        String command = "?";
+        Instant received;
+        long dispatchNanos;
+        long filterNanos;
+        boolean blocked;
+        Instant firstEnqueue;
+        Instant lastEnqueue;
+        int recipients;
+        long maxQueueNanos;
+        String slowestRecipient = "-";
+        Instant lastDelivery;
+
+        Trace(long messageId) {
+            this.messageId = messageId;
+        }
+
+        /**
+         * Control lines such as {@code REQUEST_USER_LIST} are traced on receipt but never
+         * enqueued to anyone; they have no end-to-end latency to report.
+         */
+        boolean reachedRecipients() {
+            return lastEnqueue != null || lastDelivery != null;
+        }
+
+        long fanOutNanos() {
+            return firstEnqueue == null ? 0 : Duration.between(firstEnqueue, lastEnqueue).toNanos();
+        }
+
+        long endToEndNanos() {
+            if (received == null) {
+                return 0;
+            }
+            Instant end = lastDelivery != null ? lastDelivery : lastEnqueue;
+            return end == null ? 0 : Duration.between(received, end).toNanos();
+        }
+
+        String dominantStage() {
+            long fanOut = fanOutNanos();
+            long max = Math.max(Math.max(dispatchNanos, filterNanos), Math.max(fanOut, maxQueueNanos));
+            if (max == maxQueueNanos) return "delivery to " + slowestRecipient;
+            if (max == fanOut) return "fan-out";
+            if (max == filterNanos) return "filtering";
+            return "dispatch";
+        }
+    }
+
+    private final Map<Long, Trace> traces = new HashMap<>();
+    private final LatencyHistogram dispatch = new LatencyHistogram();
+    private final LatencyHistogram filter = new LatencyHistogram();
+    private final LatencyHistogram enqueue = new LatencyHistogram();
+    private final LatencyHistogram deliveryQueue = new LatencyHistogram();
+    private final LatencyHistogram slowWrites = new LatencyHistogram();
+    private final LatencyHistogram pinned = new LatencyHistogram();
+    private final Map<String, Integer> slowWritesByRecipient = new HashMap<>();
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java MessageTraceReport <recording.jfr> [top]");
+            System.exit(1);
+        }
+
+        try {
+            MessageTraceReport report = new MessageTraceReport();
+            report.read(Paths.get(args[0]));
+            report.print(args.length > 1 ? Integer.parseInt(args[1]) : 10);
+        } catch (IOException e) {
+            System.err.println("Error reading recording: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    public void read(Path recording) throws IOException {
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                accept(file.readEvent());
+            }
+        }
+    }
+
+    private void accept(RecordedEvent event) {
+        String type = event.getEventType().getName();
+        long nanos = event.getDuration().toNanos();
+
+        switch (type) {
+            case "messenger.MessageReceived" -> {
+                Trace trace = trace(event);
+                trace.sender = event.getString("sender");
+                trace.command = event.getString("command");
+                trace.received = event.getStartTime();
+            }
+            case "messenger.MessageDispatch" -> {
+                trace(event).dispatchNanos = nanos;
+                dispatch.recordNanos(nanos);
+            }
+            case "messenger.BannedPhraseCheck" -> {
+                Trace trace = trace(event);
+                trace.filterNanos = nanos;
+                trace.blocked = event.getBoolean("blocked");
+                filter.recordNanos(nanos);
+            }
+            case "messenger.RecipientEnqueue" -> {
+                Trace trace = trace(event);
+                if (trace.firstEnqueue == null || event.getStartTime().isBefore(trace.firstEnqueue)) {
+                    trace.firstEnqueue = event.getStartTime();
+                }
+                if (trace.lastEnqueue == null || event.getEndTime().isAfter(trace.lastEnqueue)) {
+                    trace.lastEnqueue = event.getEndTime();
+                }
+                trace.recipients++;
+                enqueue.recordNanos(nanos);
+            }
+            case "messenger.FrameDelivered" -> {
+                Trace trace = trace(event);
+                long queueNanos = event.getDuration("queueTime").toNanos();
+                if (queueNanos >= trace.maxQueueNanos) {
+                    trace.maxQueueNanos = queueNanos;
+                    trace.slowestRecipient = event.getString("recipient");
+                }
+                if (trace.lastDelivery == null || event.getEndTime().isAfter(trace.lastDelivery)) {
+                    trace.lastDelivery = event.getEndTime();
+                }
+                deliveryQueue.recordNanos(queueNanos);
+            }
+            case "messenger.SlowSocketWrite" -> {
+                slowWrites.recordNanos(nanos);
+                slowWritesByRecipient.merge(event.getString("recipient"), 1, Integer::sum);
+            }
+            case "jdk.VirtualThreadPinned" -> pinned.recordNanos(nanos);
+            default -> {
+            }
+        }
+    }
+
+    private Trace trace(RecordedEvent event) {
+        return traces.computeIfAbsent(event.getLong("messageId"), Trace::new);
+    }
+
+    public void print(int top) {
+        LatencyHistogram fanOut = new LatencyHistogram();
+        LatencyHistogram endToEnd = new LatencyHistogram();
+        Map<String, Integer> dominant = new TreeMap<>();
+        int untraced = 0;
+        for (Trace trace : traces.values()) {
+            if (!trace.reachedRecipients()) {
+                untraced++;
+                continue;
+            }
+            fanOut.recordNanos(trace.fanOutNanos());
+            if (trace.received != null) {
+                endToEnd.recordNanos(trace.endToEndNanos());
+                String stage = trace.dominantStage().startsWith("delivery") ? "delivery" : trace.dominantStage();
+                dominant.merge(stage, 1, Integer::sum);
+            }
+        }
+
+        System.out.println("Messages traced: " + (traces.size() - untraced)
+                + " (" + untraced + " control lines with no recipients skipped)");
+        System.out.println();
+        System.out.println("Stage latency:");
+        System.out.println("  dispatch queueing    " + dispatch.summary());
+        System.out.println("  banned-phrase check  " + filter.summary());
+        System.out.println("  recipient enqueue    " + enqueue.summary());
+        System.out.println("  fan-out per message  " + fanOut.summary());
+        System.out.println("  delivery queue time  " + deliveryQueue.summary());
+        System.out.println("  end to end           " + endToEnd.summary());
+        System.out.println();
+        System.out.println("Dominant stage per message: " + dominant);
+        System.out.println("Slow socket writes: " + slowWrites.summary());
+        slowWritesByRecipient.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(5)
+                .forEach(e -> System.out.println("  " + e.getKey() + ": " + e.getValue()));
+        System.out.println("Virtual thread pinned: " + pinned.summary());
+        System.out.println();
+
+        System.out.println("Slowest " + top + " messages:");
+        traces.values().stream()
+                .filter(trace -> trace.received != null && trace.reachedRecipients())
+                .sorted(Comparator.comparingLong(Trace::endToEndNanos).reversed())
+                .limit(top)
+                .forEach(trace -> System.out.printf(
+                        "  #%d %s %s%s: total %s = dispatch %s + filter %s + fan-out %s (%d recipients) + delivery %s; dominated by %s%n",
+                        trace.messageId, trace.sender, trace.command, trace.blocked ? " [blocked]" : "",
+                        micros(trace.endToEndNanos()), micros(trace.dispatchNanos), micros(trace.filterNanos),
+                        micros(trace.fanOutNanos()), trace.recipients, micros(trace.maxQueueNanos),
+                        trace.dominantStage()));
+    }
+
+    private static String micros(long nanos) {
+        return LatencyHistogram.formatMicros(nanos / 1000);
+    }
+}
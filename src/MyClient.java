@@ -1,22 +1,27 @@
 import javax.swing.*;
+import javax.swing.text.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class MyClient extends JFrame {
     private String clientName;
     private Socket socket;
     private OutputStream outputStream;
-    private PrintWriter printWriter;
+    private Writer socketWriter;
     private InputStream inputStream;
-    private BufferedReader bufferedReader;
+    private FrameReader frameReader;
     private JTextArea clientListArea;
     private JTextArea messageArea;
     private JTextField messageField;
     private JButton sendButton;
+    private JLabel sendStatusLabel;
+    private JButton reconnectButton;
     private JComboBox<String> targetUserComboBox;
 
     private JList<String> multipleUsersList;
@@ -26,6 +31,30 @@ class MyClient extends JFrame {
     private final ExecutorService messageExecutor;
     private final ExecutorService uiExecutor;
 
+    private static final int MAX_FRAME_BYTES = 8 * 1024 * 1024;
+    private static final int HISTORY_PAGE_SIZE = 200;
+    private static final int MAX_VISIBLE_MESSAGES = 1000;
+
+    private ChatHistoryStore historyStore;
+    private JScrollPane messageScrollPane;
+    private long firstLoadedMessage;
+    private long loadedMessagesEnd;
+    private boolean detachedFromTail;
+    private boolean loadingPage;
+    private final AtomicBoolean tailRefreshScheduled = new AtomicBoolean();
+
+    private static final int SEND_QUEUE_CAPACITY = 500;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long CLOSE_FLUSH_TIMEOUT_MILLIS = 3000;
+    private static final long DEFAULT_RESTART_DELAY_MILLIS = 5000;
+
+    private final ClientSendQueue sendQueue;
+    private final AtomicBoolean sendStatusUpdateScheduled = new AtomicBoolean();
+    private volatile Thread sendWriterThread;
+    private volatile boolean connected;
+    private volatile boolean closing;
+    private volatile long serverRestartDelayMillis = -1;
+
 
 
     public static void main(String[] args) {
@@ -36,18 +65,21 @@ class MyClient extends JFrame {
     }
 
     private void requestUserList() {
-        printWriter.println("REQUEST_USER_LIST");
+        sendQueue.offerControl("REQUEST_USER_LIST");
     }
 
     public MyClient(Socket socket, String username) {
         this.messageExecutor = Executors.newVirtualThreadPerTaskExecutor();
         this.uiExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.sendQueue = new ClientSendQueue(SEND_QUEUE_CAPACITY, this::scheduleSendStatusUpdate);
 
         this.clientName = username;
         try {
             initializeConnection(socket);
             initializeInterface();
+            openHistory();
             startMessageListener();
+            startSendWriter();
             requestUserList();
         } catch (IOException e) {
             throw new RuntimeException("Connection error: " + e.getMessage());
@@ -58,13 +90,14 @@ class MyClient extends JFrame {
         this.socket = socket;
         this.outputStream = socket.getOutputStream();
         this.inputStream = socket.getInputStream();
-        this.printWriter = new PrintWriter(outputStream, true);
-        this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+        this.socketWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.frameReader = new FrameReader(inputStream, MAX_FRAME_BYTES);
 
         CompletableFuture<String> responseFuture = CompletableFuture.supplyAsync(() -> {
             try {
-                printWriter.println(clientName);
-                return bufferedReader.readLine();
+                socketWriter.write(clientName + "\n");
+                socketWriter.flush();
+                return frameReader.readLine();
             } catch (IOException e) {
                 throw new CompletionException(e);
             }
@@ -75,9 +108,130 @@ class MyClient extends JFrame {
         if ("USERNAME_TAKEN".equals(response)) {
             throw new RuntimeException("This username is already taken");
         }
+        if ("SERVER_BUSY".equals(response)) {
+            throw new RuntimeException("Server is busy");
+        }
         if (!"USERNAME_OK".equals(response)) {
             throw new RuntimeException("Server error during registration");
         }
+        serverRestartDelayMillis = -1;
+        connected = true;
+    }
+
+    private void startSendWriter() {
+        Writer writer = socketWriter;
+        Socket writerSocket = socket;
+        sendWriterThread = Thread.ofVirtual().name("send-writer-" + clientName).start(() -> {
+            try {
+                sendQueue.drainTo(writer);
+            } catch (IOException e) {
+                try {
+                    writerSocket.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+            } catch (InterruptedException e) {
+                // Connection replaced or window closed
+            }
+        });
+    }
+
+    private void scheduleSendStatusUpdate() {
+        if (sendStatusUpdateScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                sendStatusUpdateScheduled.set(false);
+                updateSendStatus();
+            });
+        }
+    }
+
+    private void updateSendStatus() {
+        if (sendStatusLabel == null) {
+            return;
+        }
+        int pending = sendQueue.size();
+        if (!connected) {
+            sendStatusLabel.setText("Disconnected" + (pending > 0 ? " - " + pending + " unsent" : ""));
+        } else {
+            sendStatusLabel.setText(pending > 0 ? "Sending " + pending + "..." : " ");
+        }
+    }
+
+    private void onConnectionLost() {
+        connected = false;
+        Thread writer = sendWriterThread;
+        if (writer != null) {
+            writer.interrupt();
+        }
+        SwingUtilities.invokeLater(() -> {
+            updateSendStatus();
+            reconnectButton.setEnabled(true);
+            reconnectButton.setVisible(true);
+        });
+    }
+
+    /**
+     * The server is draining: acknowledge with {@code CLIENT_DISCONNECT} as the last line on
+     * this connection and keep unsent chat queued. The server closes the connection once our
+     * remaining messages are delivered, and we reconnect after the delay it suggested.
+     */
+    private void onServerShutdown(String message) {
+        long delayMillis;
+        try {
+            delayMillis = Long.parseLong(message.substring("SERVER_SHUTDOWN".length()).trim());
+        } catch (NumberFormatException e) {
+            delayMillis = DEFAULT_RESTART_DELAY_MILLIS;
+        }
+        serverRestartDelayMillis = Math.max(0, delayMillis);
+        sendQueue.stopAfter("CLIENT_DISCONNECT");
+        SwingUtilities.invokeLater(() -> sendStatusLabel.setText("Server restarting..."));
+    }
+
+    private void scheduleReconnect(long delayMillis) {
+        onConnectionLost();
+        SwingUtilities.invokeLater(() -> sendStatusLabel.setText(
+                String.format("Server restarting - reconnecting in %.1fs", delayMillis / 1000.0)));
+
+        CompletableFuture.runAsync(() -> SwingUtilities.invokeLater(() -> {
+            if (!closing && !connected && reconnectButton.isEnabled()) {
+                reconnect();
+            }
+        }), CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS, uiExecutor));
+    }
+
+    private void reconnect() {
+        reconnectButton.setEnabled(false);
+        sendStatusLabel.setText("Reconnecting...");
+        java.net.SocketAddress address = socket.getRemoteSocketAddress();
+
+        CompletableFuture.runAsync(() -> {
+            Socket newSocket = new Socket();
+            try {
+                newSocket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                initializeConnection(newSocket);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    newSocket.close();
+                } catch (IOException ex) {
+                    // Ignore
+                }
+                String reason = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                SwingUtilities.invokeLater(() -> {
+                    sendStatusLabel.setText("Reconnect failed: " + reason);
+                    reconnectButton.setEnabled(true);
+                });
+                return;
+            }
+
+            sendQueue.resetControlLines();
+            startMessageListener();
+            startSendWriter();
+            requestUserList();
+            SwingUtilities.invokeLater(() -> {
+                reconnectButton.setVisible(false);
+                updateSendStatus();
+            });
+        }, uiExecutor);
     }
 
     private void initializeInterface() {
@@ -114,7 +268,14 @@ class MyClient extends JFrame {
         JPanel messagePanel = new JPanel(new BorderLayout());
         messageArea = new JTextArea(5, 30);
         messageArea.setEditable(false);
-        messagePanel.add(new JScrollPane(messageArea), BorderLayout.CENTER);
+        ((DefaultCaret) messageArea.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        messageScrollPane = new JScrollPane(messageArea);
+        messageScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                onMessageScroll();
+            }
+        });
+        messagePanel.add(messageScrollPane, BorderLayout.CENTER);
 
         JPanel inputPanel = createInputPanel();
         messagePanel.add(inputPanel, BorderLayout.SOUTH);
@@ -122,6 +283,193 @@ class MyClient extends JFrame {
         tabbedPane.addTab("Chat", messagePanel);
     }
 
+    private void openHistory() {
+        String server = socket.getInetAddress().getHostAddress() + "_" + socket.getPort();
+        try {
+            historyStore = new ChatHistoryStore(ChatHistoryStore.defaultDirectory(server, clientName));
+        } catch (IOException e) {
+            System.out.println("Chat history unavailable: " + e.getMessage());
+            return;
+        }
+
+        try {
+            long end = historyStore.size();
+            long start = Math.max(0, end - HISTORY_PAGE_SIZE);
+            List<String> page = historyStore.read(start, end);
+            firstLoadedMessage = start;
+            loadedMessagesEnd = start + page.size();
+            messageArea.setText(joinLines(page));
+            SwingUtilities.invokeLater(this::scrollMessagesToBottom);
+        } catch (IOException e) {
+            System.out.println("Error reading chat history: " + e.getMessage());
+        }
+    }
+
+    private void appendChatLine(String line) {
+        if (historyStore == null) {
+            SwingUtilities.invokeLater(() -> {
+                boolean atBottom = isScrolledToBottom();
+                messageArea.append(line + "\n");
+                if (atBottom) {
+                    SwingUtilities.invokeLater(this::scrollMessagesToBottom);
+                }
+            });
+            return;
+        }
+
+        try {
+            historyStore.append(line);
+        } catch (IOException e) {
+            System.out.println("Error saving chat history: " + e.getMessage());
+            return;
+        }
+        if (tailRefreshScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::refreshTail);
+        }
+    }
+
+    private void refreshTail() {
+        tailRefreshScheduled.set(false);
+        if (detachedFromTail || loadingPage) {
+            return;
+        }
+
+        boolean atBottom = isScrolledToBottom();
+        try {
+            List<String> newMessages = historyStore.read(loadedMessagesEnd, historyStore.size());
+            if (newMessages.isEmpty()) {
+                return;
+            }
+            messageArea.append(joinLines(newMessages));
+            loadedMessagesEnd += newMessages.size();
+            trimOldestMessages();
+        } catch (IOException e) {
+            System.out.println("Error reading chat history: " + e.getMessage());
+            return;
+        }
+        if (atBottom) {
+            SwingUtilities.invokeLater(this::scrollMessagesToBottom);
+        }
+    }
+
+    private void onMessageScroll() {
+        if (historyStore == null || loadingPage) {
+            return;
+        }
+
+        JScrollBar bar = messageScrollPane.getVerticalScrollBar();
+        if (bar.getValue() == bar.getMinimum() && firstLoadedMessage > 0) {
+            loadOlderPage();
+        } else if (detachedFromTail && isScrolledToBottom()) {
+            loadNewerPage();
+        }
+    }
+
+    private void loadOlderPage() {
+        loadingPage = true;
+        long end = firstLoadedMessage;
+        long start = Math.max(0, end - HISTORY_PAGE_SIZE);
+        CompletableFuture.supplyAsync(() -> readHistory(start, end), uiExecutor)
+                .thenAccept(page -> SwingUtilities.invokeLater(() -> {
+                    loadingPage = false;
+                    if (!detachedFromTail) {
+                        refreshTail();
+                    }
+                    if (page.isEmpty() || end != firstLoadedMessage) {
+                        return;
+                    }
+                    messageArea.insert(joinLines(page), 0);
+                    firstLoadedMessage = start;
+                    trimNewestMessages();
+
+                    int rowHeight = messageArea.getFontMetrics(messageArea.getFont()).getHeight();
+                    SwingUtilities.invokeLater(() ->
+                            messageScrollPane.getVerticalScrollBar().setValue(page.size() * rowHeight));
+                }));
+    }
+
+    private void loadNewerPage() {
+        loadingPage = true;
+        long start = loadedMessagesEnd;
+        CompletableFuture.supplyAsync(() -> readHistory(start, start + HISTORY_PAGE_SIZE), uiExecutor)
+                .thenAccept(page -> SwingUtilities.invokeLater(() -> {
+                    loadingPage = false;
+                    if (start != loadedMessagesEnd) {
+                        return;
+                    }
+                    messageArea.append(joinLines(page));
+                    loadedMessagesEnd += page.size();
+                    detachedFromTail = loadedMessagesEnd < historyStore.size();
+
+                    JScrollBar bar = messageScrollPane.getVerticalScrollBar();
+                    int value = bar.getValue();
+                    int rowHeight = messageArea.getFontMetrics(messageArea.getFont()).getHeight();
+                    int trimmed = trimOldestMessages();
+                    SwingUtilities.invokeLater(() -> bar.setValue(value - trimmed * rowHeight));
+
+                    if (!detachedFromTail) {
+                        refreshTail();
+                    }
+                }));
+    }
+
+    private List<String> readHistory(long start, long end) {
+        try {
+            return historyStore.read(start, end);
+        } catch (IOException e) {
+            System.out.println("Error reading chat history: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private int trimOldestMessages() {
+        int excess = (int) (loadedMessagesEnd - firstLoadedMessage - MAX_VISIBLE_MESSAGES);
+        if (excess <= 0) {
+            return 0;
+        }
+        try {
+            messageArea.replaceRange("", 0, messageArea.getLineStartOffset(excess));
+            firstLoadedMessage += excess;
+        } catch (BadLocationException e) {
+            return 0;
+        }
+        return excess;
+    }
+
+    private void trimNewestMessages() {
+        int loaded = (int) (loadedMessagesEnd - firstLoadedMessage);
+        int excess = loaded - MAX_VISIBLE_MESSAGES;
+        if (excess <= 0) {
+            return;
+        }
+        try {
+            messageArea.replaceRange("", messageArea.getLineStartOffset(loaded - excess),
+                    messageArea.getDocument().getLength());
+            loadedMessagesEnd -= excess;
+            detachedFromTail = true;
+        } catch (BadLocationException e) {
+            // Leave the view untrimmed
+        }
+    }
+
+    private boolean isScrolledToBottom() {
+        JScrollBar bar = messageScrollPane.getVerticalScrollBar();
+        return bar.getValue() + bar.getModel().getExtent() >= bar.getMaximum();
+    }
+
+    private void scrollMessagesToBottom() {
+        JScrollBar bar = messageScrollPane.getVerticalScrollBar();
+        bar.setValue(bar.getMaximum());
+    }
+
+    private static String joinLines(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
     private void setupMessageHandling(JComboBox<String> modeSelector) {
         modeSelector.addActionListener(e ->
                 CompletableFuture.runAsync(() ->
@@ -186,6 +534,15 @@ class MyClient extends JFrame {
         messageInputPanel.add(messageField, BorderLayout.CENTER);
         messageInputPanel.add(sendButton, BorderLayout.EAST);
 
+        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        sendStatusLabel = new JLabel(" ");
+        reconnectButton = new JButton("Reconnect");
+        reconnectButton.setVisible(false);
+        reconnectButton.addActionListener(e -> reconnect());
+        statusPanel.add(sendStatusLabel);
+        statusPanel.add(reconnectButton);
+        messageInputPanel.add(statusPanel, BorderLayout.SOUTH);
+
         setupMessageHandling(modeSelector);
 
         inputPanel.add(messageInputPanel, BorderLayout.CENTER);
@@ -197,34 +554,57 @@ class MyClient extends JFrame {
     }
 
     private void messageListener() {
+        FrameReader reader = frameReader;
+        Socket listenerSocket = socket;
         try {
             String message;
-            while ((message = bufferedReader.readLine()) != null) {
-                String finalMessage = message;
-                processMessage(finalMessage);
+            while ((message = reader.readLine()) != null) {
+                if (message.equals("PING")) {
+                    sendQueue.offerControl("PONG");
+                    continue;
+                }
+                if (message.startsWith("SERVER_SHUTDOWN")) {
+                    onServerShutdown(message);
+                    continue;
+                }
+                processMessage(message);
             }
         } catch (IOException e) {
-            System.out.println("Disconnected from server");
+            System.out.println("Disconnected from server: " + e.getMessage());
         } finally {
-            shutdown();
+            reader.close();
+            try {
+                listenerSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            if (!closing) {
+                long restartDelayMillis = serverRestartDelayMillis;
+                if (restartDelayMillis >= 0) {
+                    scheduleReconnect(restartDelayMillis);
+                } else {
+                    onConnectionLost();
+                }
+            }
         }
     }
 
     private void sendMessage(String mode) {
         String message = messageField.getText().trim();
         if (!message.isEmpty()) {
+            String line = null;
             switch (mode) {
                 case "All":
-                    printWriter.println("MESSAGE_ALL " + message);
+                    line = "MESSAGE_ALL " + message;
                     break;
                 case "To user":
                 case "All except user":
                     String selectedUser = (String) targetUserComboBox.getSelectedItem();
                     if (selectedUser != null) {
                         if (mode.equals("To user")) {
-                            printWriter.println("MESSAGE_TO " + selectedUser.trim() + ": " + message);
+                            line = "MESSAGE_TO " + selectedUser.trim() + ": " + message;
                         } else {
-                            printWriter.println("MESSAGE_EXCEPT " + selectedUser.trim() + ": " + message);
+                            line = "MESSAGE_EXCEPT " + selectedUser.trim() + ": " + message;
                         }
                     }
                     break;
@@ -232,10 +612,14 @@ class MyClient extends JFrame {
                     List<String> selectedUsers = multipleUsersList.getSelectedValuesList();
                     if (!selectedUsers.isEmpty()) {
                         String recipients = String.join(",", selectedUsers);
-                        printWriter.println("MESSAGE_TO_MULTIPLE " + recipients + ": " + message);
+                        line = "MESSAGE_TO_MULTIPLE " + recipients + ": " + message;
                     }
                     break;
             }
+            if (line != null && !sendQueue.offer(line)) {
+                sendStatusLabel.setText("Send queue full - message not sent");
+                return;
+            }
             messageField.setText("");
             messageField.requestFocus();
         }
@@ -264,18 +648,20 @@ class MyClient extends JFrame {
     }
 
 
+    /**
+     * Runs on the listener thread so chat lines reach the history file in arrival order; the
+     * Swing updates are handed to the EDT by the methods below.
+     */
     private void processMessage(String message) {
-        CompletableFuture.runAsync(() -> {
-            if (message.startsWith("CLIENT_LIST")) {
-                updateClientList(message.substring(11));
-            } else if (message.startsWith("MESSAGE_ALL ")) {
-                processMessageAll(message);
-            } else if (message.startsWith("MESSAGE_PERSONAL ")) {
-                processMessagePersonal(message);
-            } else if (message.startsWith("MESSAGE_EXCEPT ")) {
-                processMessageExcept(message);
-            }
-        }, uiExecutor);
+        if (message.startsWith("CLIENT_LIST")) {
+            updateClientList(message.substring(11));
+        } else if (message.startsWith("MESSAGE_ALL ")) {
+            processMessageAll(message);
+        } else if (message.startsWith("MESSAGE_PERSONAL ")) {
+            processMessagePersonal(message);
+        } else if (message.startsWith("MESSAGE_EXCEPT ")) {
+            processMessageExcept(message);
+        }
     }
 
     private void processMessageAll(String message) {
@@ -283,16 +669,12 @@ class MyClient extends JFrame {
         if (colonIndex > -1) {
             String sender = message.substring(12, colonIndex);
             String content = message.substring(colonIndex + 2);
-            SwingUtilities.invokeLater(() ->
-                    messageArea.append(sender + ": " + content + "\n")
-            );
+            appendChatLine(sender + ": " + content);
         }
     }
 
     private void processMessagePersonal(String message) {
-        SwingUtilities.invokeLater(() ->
-                messageArea.append(message.substring(17) + "\n")
-        );
+        appendChatLine(message.substring(17));
     }
 
     private void processMessageExcept(String message) {
@@ -302,21 +684,41 @@ class MyClient extends JFrame {
             String sender = message.substring(14, startExcept).trim();
             String excludedUser = message.substring(startExcept + 8, endExcept);
             String content = message.substring(endExcept + 2);
-            SwingUtilities.invokeLater(() ->
-                    messageArea.append(sender + " [All except " + excludedUser + "]: " + content + "\n")
-            );
+            appendChatLine(sender + " [All except " + excludedUser + "]: " + content);
+        }
+    }
+
+    private void closeHistory() {
+        if (historyStore != null) {
+            try {
+                historyStore.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
     private void shutdown() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+
         CompletableFuture.runAsync(() -> {
             try {
+                int unsent = sendQueue.close(connected ? CLOSE_FLUSH_TIMEOUT_MILLIS : 0);
+                if (unsent > 0) {
+                    System.out.println("Closed with " + unsent + " unsent messages");
+                }
                 if (socket != null && !socket.isClosed()) {
                     socket.close();
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
+                closeHistory();
                 messageExecutor.shutdown();
                 uiExecutor.shutdown();
                 SwingUtilities.invokeLater(this::dispose);
@@ -1,36 +1,17 @@
 import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.table.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
-
-class ServerConfig {
-    private String ipAddress;
-    private int port;
-    private List<String> bannedPhrases;
-
-    public ServerConfig(String ipAddress, int port, List<String> bannedPhrases) {
-        this.ipAddress = ipAddress;
-        this.port = port;
-        this.bannedPhrases = bannedPhrases;
-    }
-
-    public String getIpAddress() { return ipAddress; }
-    public int getPort() { return port; }
-    public List<String> getBannedPhrases() { return bannedPhrases; }
-}
-
-class ClientInfo {
-    Socket socket;
-    PrintWriter writer;
-
-    public ClientInfo(Socket socket, PrintWriter writer) {
-        this.socket = socket;
-        this.writer = writer;
-    }
-}
+import java.util.concurrent.atomic.*;
+import java.util.regex.Pattern;
 
 public class MyServer extends JFrame {
 
@@ -38,88 +19,95 @@ public class MyServer extends JFrame {
         SwingUtilities.invokeLater(() -> new MyServer());
     }
 
-    private ServerSocket serverSocket;
-
     private ServerConfig config;
-    private DefaultListModel<String> clientListModel;
+    private ChatServer server;
+    private RosterTableModel rosterTableModel;
+    private JTable rosterTable;
+    private JLabel rosterSummaryLabel;
+    private JLabel acceptStatsLabel;
     private JTextArea logTextArea;
     private JPanel cardPanel;
 
     private CardLayout cardLayout;
 
-    private ConcurrentHashMap<String, ClientInfo> clients;
-
     private JButton shutdownButton;
-    private boolean isRunning;
 
-    private final ExecutorService clientExecutor;
-    private final ExecutorService messageExecutor;
+    private final ScheduledExecutorService dashboardScheduler;
 
-    public MyServer() {
+    private static final long DASHBOARD_REFRESH_MILLIS = 500;
+    private static final int MAX_LOG_LINES = 5000;
 
-        clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
-        messageExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile String acceptSummary = "";
 
-        clients = new ConcurrentHashMap<>();
-        clientListModel = new DefaultListModel<>();
+    private final AtomicReference<List<RosterEntry>> pendingRosterSnapshot = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<String> pendingLogLines = new ConcurrentLinkedQueue<>();
+
+    public MyServer() {
+        dashboardScheduler = Executors.newSingleThreadScheduledExecutor();
+        rosterTableModel = new RosterTableModel();
 
         loadConfiguration();
         initializeGUI();
+        server = new ChatServer(config, this::logMessage);
+        startDashboardRefresh();
         startServer();
     }
 
 
     private void startServer() {
-        try {
-            InetAddress address = InetAddress.getByName(config.getIpAddress());
-            this.serverSocket = new ServerSocket(config.getPort(), 50, address);
-            logMessage("Server started on " + config.getIpAddress() + ":" + config.getPort());
+        int backlog = config.getIntOption("accept.backlog", 1024);
 
-            acceptClients();
-        } catch (IOException e) {
+        List<ConnectionListener> listeners = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : listenAddresses()) {
+                listeners.add(new SocketTransport(address, backlog));
+                logMessage("Server started on " + address.getHostString() + ":" + address.getPort()
+                        + " (backlog " + backlog + ")");
+            }
+        } catch (IOException | IllegalArgumentException e) {
             logMessage("Error starting server: " + e.getMessage());
             System.exit(1);
         }
+
+        for (ConnectionListener listener : listeners) {
+            server.listen(listener);
+        }
     }
 
-    private void loadConfiguration() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("serverConfig.txt"))) {
-            String ipAddress = reader.readLine();
-            int port = Integer.parseInt(reader.readLine());
-            List<String> bannedPhrases = new ArrayList<>();
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                bannedPhrases.add(line.trim().toLowerCase());
+    private List<InetSocketAddress> listenAddresses() throws UnknownHostException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        addresses.add(new InetSocketAddress(InetAddress.getByName(config.getIpAddress()), config.getPort()));
+
+        for (String entry : config.getOption("listen.addresses", "").split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("listen address must be ip:port: " + entry);
             }
+            String host = entry.substring(0, separator).replace("[", "").replace("]", "");
+            int port = Integer.parseInt(entry.substring(separator + 1));
+            addresses.add(new InetSocketAddress(InetAddress.getByName(host), port));
+        }
+        return addresses;
+    }
 
-            config = new ServerConfig(ipAddress, port, bannedPhrases);
+    private void loadConfiguration() {
+        try {
+            config = ServerConfig.load(new File("serverConfig.txt"));
+            config.getWarnings().forEach(this::logMessage);
             logMessage("Configuration loaded successfully");
-
         } catch (IOException e) {
             logMessage("Error loading configuration: " + e.getMessage());
             System.exit(1);
         }
     }
 
-    private void acceptClients() {
-        CompletableFuture.runAsync(() -> {
-            while (true) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    clientExecutor.submit(() -> handleClient(clientSocket));
-                } catch (IOException e) {
-                    if (isRunning) {
-                        logMessage("Error accepting client: " + e.getMessage());
-                    }
-                }
-            }
-        }, clientExecutor);
-    }
-
     private void initializeGUI() {
         setTitle("MyServer");
-        setSize(400, 280);
+        setSize(720, 400);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
@@ -138,10 +126,7 @@ public class MyServer extends JFrame {
         cardPanel = new JPanel(cardLayout);
         add(cardPanel, BorderLayout.CENTER);
 
-        JList<String> clientList = new JList<>(clientListModel);
-        JScrollPane clientScrollPane = new JScrollPane(clientList);
-        JPanel clientsPanel = new JPanel(new BorderLayout());
-        clientsPanel.add(clientScrollPane, BorderLayout.CENTER);
+        JPanel clientsPanel = createClientsPanel();
 
         logTextArea = new JTextArea(10, 30);
         logTextArea.setEditable(false);
@@ -159,269 +144,156 @@ public class MyServer extends JFrame {
         setVisible(true);
     }
 
-    private void shutdownServer() {
-        int confirm = JOptionPane.showConfirmDialog(
-                this,
-                "Are you sure you want to shutdown the server?\nAll clients will be disconnected.",
-                "Confirm Shutdown",
-                JOptionPane.YES_NO_OPTION,
-                JOptionPane.WARNING_MESSAGE
-        );
-
-        if (confirm == JOptionPane.YES_OPTION) {
-            isRunning = false;
-
-            CompletableFuture.runAsync(() -> {
-                clients.forEach((name, client) -> {
-                    try {
-                        client.socket.close();
-                    } catch (IOException ex) {
-                        logMessage("Error disconnecting client " + name);
+    private JPanel createClientsPanel() {
+        rosterTable = new JTable(rosterTableModel);
+        rosterTable.setFillsViewportHeight(true);
+        rosterTable.getColumnModel().getColumn(RosterTableModel.COLUMN_CONNECTED_SINCE)
+                .setCellRenderer(new DefaultTableCellRenderer() {
+                    private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                            .withZone(ZoneId.systemDefault());
+
+                    @Override
+                    protected void setValue(Object value) {
+                        setText(value == null ? "" : formatter.format(Instant.ofEpochMilli((Long) value)));
                     }
                 });
 
-                clients.clear();
-                clientListModel.clear();
+        TableRowSorter<RosterTableModel> sorter = new TableRowSorter<>(rosterTableModel);
+        sorter.setSortsOnUpdates(true);
+        rosterTable.setRowSorter(sorter);
 
-                try {
-                    if (serverSocket != null && !serverSocket.isClosed()) {
-                        serverSocket.close();
-                    }
+        JTextField filterField = new JTextField(20);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { updateFilter(); }
 
-                    clientExecutor.shutdown();
-                    messageExecutor.shutdown();
+            @Override
+            public void removeUpdate(DocumentEvent e) { updateFilter(); }
 
-                    logMessage("Server shut down successfully");
+            @Override
+            public void changedUpdate(DocumentEvent e) { updateFilter(); }
 
-                    Thread.sleep(500);
+            private void updateFilter() {
+                String text = filterField.getText().trim();
+                sorter.setRowFilter(text.isEmpty() ? null : RowFilter.regexFilter("(?i)" + Pattern.quote(text),
+                        RosterTableModel.COLUMN_NAME, RosterTableModel.COLUMN_ADDRESS));
+            }
+        });
 
-                    System.exit(0);
+        rosterSummaryLabel = new JLabel("Clients: 0");
+        acceptStatsLabel = new JLabel(" ");
 
-                } catch (IOException e) {
-                    logMessage("Error shutting down server: " + e.getMessage());
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }, messageExecutor);
+        JPanel filterPanel = new JPanel(new BorderLayout(5, 0));
+        filterPanel.add(new JLabel("Filter: "), BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        filterPanel.add(rosterSummaryLabel, BorderLayout.EAST);
 
-            shutdownButton.setEnabled(false);
-        }
+        JPanel clientsPanel = new JPanel(new BorderLayout());
+        clientsPanel.add(filterPanel, BorderLayout.NORTH);
+        clientsPanel.add(new JScrollPane(rosterTable), BorderLayout.CENTER);
+        clientsPanel.add(acceptStatsLabel, BorderLayout.SOUTH);
+        return clientsPanel;
     }
 
-    private void handleClient(Socket clientSocket) {
-        String clientName = null;
-        boolean isConnected = false;
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true);
-
-            clientName = reader.readLine();
-
-            if (clients.containsKey(clientName)) {
-                writer.println("USERNAME_TAKEN");
-                logMessage("Connection rejected: username '" + clientName + "' is already taken");
-                clientSocket.close();
-                return;
-            }
-
-            isConnected = true;
+    private void startDashboardRefresh() {
+        dashboardScheduler.scheduleAtFixedRate(this::publishDashboardSnapshot,
+                DASHBOARD_REFRESH_MILLIS, DASHBOARD_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-            writer.println("USERNAME_OK");
+    private void publishDashboardSnapshot() {
+        AcceptStats acceptStats = server.getAcceptStats();
+        String settledBurst = acceptStats.sample();
+        if (settledBurst != null) {
+            logMessage(settledBurst);
+        }
+        acceptSummary = acceptStats.summary() + " | oversize frames: " + server.getOversizeFrames()
+                + " | dropped broadcasts: " + server.getDroppedBroadcastFrames();
 
-            clients.put(clientName, new ClientInfo(clientSocket, writer));
-            String finalClientName = clientName;
-            SwingUtilities.invokeLater(() -> clientListModel.addElement(finalClientName));
-            logMessage("Client connected: " + clientName + clientSocket.getInetAddress().toString());
-            sendClientList();
+        List<RosterEntry> snapshot = server.rosterSnapshot();
 
-            String message;
-            while ((message = reader.readLine()) != null) {
-                handleMessage(clientName, message);
-            }
-        } catch (IOException e) {
-            // Ignore
-        } finally {
-            if (isConnected && clientName != null && clients.containsKey(clientName)) {
-                clients.remove(clientName);
-                String finalClientName1 = clientName;
-                SwingUtilities.invokeLater(() -> clientListModel.removeElement(finalClientName1));
-                logMessage("Client disconnected: " + clientName + clientSocket.getInetAddress().toString());
-                sendClientList();
-            }
+        if (pendingRosterSnapshot.getAndSet(Collections.unmodifiableList(snapshot)) == null) {
+            SwingUtilities.invokeLater(this::applyDashboardSnapshot);
         }
     }
 
-
-    private void handleMessage(String clientName, String message) {
-        messageExecutor.submit(() -> {
-            ClientInfo sender = clients.get(clientName);
-
-            if (message.equals("CLIENT_DISCONNECT")) {
-                handleClientDisconnect(clientName);
-                return;
+    private void applyDashboardSnapshot() {
+        List<RosterEntry> snapshot = pendingRosterSnapshot.getAndSet(null);
+        if (snapshot != null) {
+            List<String> selectedNames = new ArrayList<>();
+            for (int viewRow : rosterTable.getSelectedRows()) {
+                selectedNames.add(rosterTableModel.getNameAt(rosterTable.convertRowIndexToModel(viewRow)));
             }
 
-            if (message.equals("REQUEST_USER_LIST")) {
-                sendClientList();
-                return;
-            }
+            rosterTableModel.applySnapshot(snapshot);
+            rosterSummaryLabel.setText("Clients: " + snapshot.size());
+            acceptStatsLabel.setText(acceptSummary);
 
-            String actualMessage = extractActualMessage(message);
-            if (containsBannedPhrase(actualMessage)) {
-                sender.writer.println("MESSAGE_PERSONAL Server: Your message contains banned content");
-                logMessage("Blocked message from " + clientName + " (banned content): " + actualMessage);
-                return;
+            if (!selectedNames.isEmpty()) {
+                restoreSelection(selectedNames);
             }
+        }
 
-            if (message.startsWith("MESSAGE_ALL ")) {
-                String content = message.substring(12);
-                broadcastMessage(clientName, content);
-            } else if (message.startsWith("MESSAGE_TO ")) {
-                String[] parts = message.substring(11).split(": ", 2);
-                if (parts.length == 2) {
-                    sendPersonalMessage(clientName, parts[0], parts[1]);
-                }
-            } else if (message.startsWith("MESSAGE_TO_MULTIPLE ")) {
-                String[] parts = message.substring(19).split(": ", 2);
-                if (parts.length == 2) {
-                    String[] recipients = parts[0].split(",");
-                    sendPersonalMessageToMultiple(clientName, recipients, parts[1]);
-                }
-            } else if (message.startsWith("MESSAGE_EXCEPT ")) {
-                String[] parts = message.substring(14).split(": ", 2);
-                if (parts.length == 2) {
-                    broadcastMessageExcept(clientName, parts[0], parts[1]);
-                }
-            }
-        });
+        flushLogLines();
     }
 
-    private void sendPersonalMessageToMultiple(String sender, String[] recipients, String message) {
-        List<String> successfulRecipients = new ArrayList<>();
-
-        for (String recipient : recipients) {
-            recipient = recipient.trim();
-            ClientInfo recipientInfo = clients.get(recipient);
-            if (recipientInfo != null) {
-                recipientInfo.writer.println("MESSAGE_PERSONAL from " + sender + ": " + message);
-                successfulRecipients.add(recipient);
+    private void restoreSelection(List<String> selectedNames) {
+        Set<String> names = new HashSet<>(selectedNames);
+        ListSelectionModel selection = rosterTable.getSelectionModel();
+        selection.setValueIsAdjusting(true);
+        selection.clearSelection();
+        for (int viewRow = 0; viewRow < rosterTable.getRowCount(); viewRow++) {
+            if (names.contains(rosterTableModel.getNameAt(rosterTable.convertRowIndexToModel(viewRow)))) {
+                selection.addSelectionInterval(viewRow, viewRow);
             }
         }
-
-        if (!successfulRecipients.isEmpty()) {
-            String recipientsList = String.join(", ", successfulRecipients);
-            clients.get(sender).writer.println("MESSAGE_PERSONAL To [" + recipientsList + "]: " + message);
-            logMessage("Personal message from " + sender + " to [" + recipientsList + "]: " + message);
-        } else {
-            clients.get(sender).writer.println("MESSAGE_PERSONAL Server: None of the selected users were found");
-            logMessage("Failed to send message from " + sender + ": no valid recipients");
-        }
+        selection.setValueIsAdjusting(false);
     }
 
-
-    private void broadcastMessageExcept(String sender, String excludeUser, String message) {
-        Optional<String> actualExcludeUser = clients.keySet()
-                .stream()
-                .filter(name -> name.equalsIgnoreCase(excludeUser.trim()))
-                .findFirst();
-
-        if (actualExcludeUser.isPresent()) {
-            String excludeName = actualExcludeUser.get();
-            String fullMessage = "MESSAGE_EXCEPT " + sender + " (except " + excludeName + "): " + message;
-
-            clients.forEach((name, client) -> {
-                if (!name.equals(excludeName)) {
-                    client.writer.println(fullMessage);
-                }
-            });
-            logMessage("Message from " + sender + " to all except " + excludeName + ": " + message);
-        } else {
-            ClientInfo senderInfo = clients.get(sender);
-            senderInfo.writer.println("MESSAGE_PERSONAL Server: User '" + excludeUser + "' not found");
-            logMessage("Failed to send message from " + sender + ": user '" + excludeUser + "' not found");
+    private void flushLogLines() {
+        if (logTextArea == null || pendingLogLines.isEmpty()) {
+            return;
         }
-    }
-
-
-    private void broadcastMessage(String sender, String message) {
-        String fullMessage = "MESSAGE_ALL " + sender + ": " + message;
-        clients.forEach((name, client) -> {
-            if (!name.equals(sender)) {
-                client.writer.println(fullMessage);
-            }
-        });
-        clients.get(sender).writer.println(fullMessage);
-        logMessage("Message from " + sender + " to all: " + message);
-    }
 
-    private void sendPersonalMessage(String sender, String recipient, String message) {
-        Optional<String> actualRecipient = clients.keySet()
-                .stream()
-                .filter(name -> name.equalsIgnoreCase(recipient.trim()))
-                .findFirst();
-
-        if (actualRecipient.isPresent()) {
-            ClientInfo recipientInfo = clients.get(actualRecipient.get());
-            recipientInfo.writer.println("MESSAGE_PERSONAL from " + sender + ": " + message);
-            clients.get(sender).writer.println("MESSAGE_PERSONAL To " + actualRecipient.get() + ": " + message);
-            logMessage("Private message from " + sender + " to " + actualRecipient.get() + ": " + message);
-        } else {
-            clients.get(sender).writer.println("MESSAGE_PERSONAL Server: User '" + recipient + "' not found");
-            logMessage("Failed to send message from " + sender + ": user '" + recipient + "' not found");
+        StringBuilder batch = new StringBuilder();
+        String line;
+        while ((line = pendingLogLines.poll()) != null) {
+            batch.append(line).append('\n');
         }
-    }
+        logTextArea.append(batch.toString());
 
-    private String extractActualMessage(String message) {
-        if (message.startsWith("MESSAGE_ALL ")) {
-            return message.substring(12);
-        } else if (message.startsWith("MESSAGE_TO ")) {
-            String[] parts = message.substring(11).split(": ", 2);
-            return parts.length == 2 ? parts[1] : "";
-        } else if (message.startsWith("MESSAGE_TO_MULTIPLE ")) {
-            String[] parts = message.substring(19).split(": ", 2);
-            return parts.length == 2 ? parts[1] : "";
-        } else if (message.startsWith("MESSAGE_EXCEPT ")) {
-            String[] parts = message.substring(14).split(": ", 2);
-            return parts.length == 2 ? parts[1] : "";
+        int excessLines = logTextArea.getLineCount() - MAX_LOG_LINES;
+        if (excessLines > 0) {
+            try {
+                logTextArea.replaceRange("", 0, logTextArea.getLineStartOffset(excessLines));
+            } catch (BadLocationException e) {
+                logTextArea.setText("");
+            }
         }
-        return message;
     }
 
-    private boolean containsBannedPhrase(String message) {
-        String lowerCaseMessage = message.toLowerCase();
-        return config.getBannedPhrases().stream().anyMatch(bannedPhrase -> lowerCaseMessage.contains(" " + bannedPhrase + " ")
-                || lowerCaseMessage.startsWith(bannedPhrase + " ") || lowerCaseMessage.endsWith(" " + bannedPhrase) || lowerCaseMessage.equals(bannedPhrase));
-    }
+    private void shutdownServer() {
+        int confirm = JOptionPane.showConfirmDialog(
+                this,
+                "Are you sure you want to shutdown the server?\nAll clients will be disconnected.",
+                "Confirm Shutdown",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE
+        );
 
+        if (confirm == JOptionPane.YES_OPTION) {
+            CompletableFuture.runAsync(() -> {
+                server.shutdown();
+                dashboardScheduler.shutdown();
+                System.exit(0);
+            });
 
-    private void handleClientDisconnect(String clientName) {
-        ClientInfo clientInfo = clients.remove(clientName);
-        if (clientInfo != null) {
-            try {
-                clientInfo.socket.close();
-            } catch (IOException e) {
-                logMessage("Error closing socket for " + clientName);
-            }
-            SwingUtilities.invokeLater(() -> clientListModel.removeElement(clientName));
-            logMessage("Client disconnected: " + clientName);
-            sendClientList();
+            shutdownButton.setText("Draining...");
+            shutdownButton.setEnabled(false);
         }
     }
 
-    private void sendClientList() {
-        clients.forEach((clientName, clientInfo) -> {
-            String clientList = "CLIENT_LIST " + String.join(", ",
-                    clients.keySet().stream()
-                            .filter(name -> !name.equals(clientName))
-                            .toArray(String[]::new));
-            clientInfo.writer.println(clientList);
-        });
-    }
-
     private void logMessage(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logTextArea.append(message + "\n");
-            System.out.println(message);
-        });
+        System.out.println(message);
+        pendingLogLines.add(message);
     }
 }
\ No newline at end of file
@@ -0,0 +1,296 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
+import jdk.jfr.EventType;
+
+/**
+ * Per-connection outbound frame queue with priority lanes. A single writer drains the lanes
+ * with weighted round-robin, so control frames and direct messages are never stuck behind a
+ * deep broadcast backlog. Control frames offered with a supersede key replace any queued
+ * frame with the same key instead of queueing behind it.
+ *
+ * <p>The broadcast lane holds at most {@code maxBroadcastFrames}; further broadcasts to a
+ * reader that has fallen that far behind are dropped and counted. The other lanes are not
+ * capped, since they carry few frames and must not lose them.
+ */
+class OutboundQueue {
+
+    enum Lane {
+        CONTROL(16),
+        DIRECT(4),
+        BROADCAST(1);
+
+        final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    private static final class Frame {
+        byte[] payload;
+        int gapStart;
+        int gapEnd;
+        final Lane lane;
+        final String supersedeKey;
+        final long messageId;
+        final long enqueuedNanos;
+
+        Frame(byte[] payload, Lane lane, String supersedeKey, long messageId, long enqueuedNanos) {
+            this.payload = payload;
+            this.lane = lane;
+            this.supersedeKey = supersedeKey;
+            this.messageId = messageId;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final EventType FRAME_DELIVERED = EventType.getEventType(MessageEvents.FrameDelivered.class);
+
+    private final String owner;
+    private final int maxBroadcastFrames;
+
+    private final EnumMap<Lane, ArrayDeque<Frame>> lanes = new EnumMap<>(Lane.class);
+    private final Map<String, Frame> supersedable = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int queuedFrames;
+    private boolean closed;
+
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong framesSuperseded = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private volatile long writeStartedNanos;
+
+    public OutboundQueue(String owner, int maxBroadcastFrames) {
+        this.owner = owner;
+        this.maxBroadcastFrames = maxBroadcastFrames;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    static byte[] encode(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public boolean offer(Lane lane, byte[] frame) {
+        return offer(lane, frame, 0);
+    }
+
+    /**
+     * Queues a frame that belongs to a traced message, so its delivery can be reported as a
+     * {@link MessageEvents.FrameDelivered} event.
+     */
+    public boolean offer(Lane lane, byte[] frame, long messageId) {
+        MessageEvents.RecipientEnqueue event = new MessageEvents.RecipientEnqueue();
+        event.begin();
+        long enqueuedNanos = messageId != 0 && FRAME_DELIVERED.isEnabled() ? System.nanoTime() : 0;
+        boolean queued = enqueue(lane, new Frame(frame, lane, null, messageId, enqueuedNanos));
+        event.end();
+        if (messageId != 0 && event.shouldCommit()) {
+            event.messageId = messageId;
+            event.recipient = owner;
+            event.lane = lane.name();
+            event.backlog = size();
+            event.commit();
+        }
+        return queued;
+    }
+
+    /**
+     * Queues a frame that makes any earlier queued frame with the same key obsolete. The
+     * stale frame's payload is replaced in place, keeping its position in the lane.
+     */
+    public boolean offerLatest(Lane lane, String supersedeKey, byte[] frame) {
+        return offerLatest(lane, supersedeKey, frame, 0, 0);
+    }
+
+    /**
+     * Like {@link #offerLatest(Lane, String, byte[])}, but bytes {@code gapStart} to
+     * {@code gapEnd} of {@code frame} are left out when it is written. This lets every
+     * recipient share one encoded payload that differs only by a cut-out section.
+     */
+    public boolean offerLatest(Lane lane, String supersedeKey, byte[] frame, int gapStart, int gapEnd) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            Frame queued = supersedable.get(supersedeKey);
+            if (queued != null) {
+                queued.payload = frame;
+                queued.gapStart = gapStart;
+                queued.gapEnd = gapEnd;
+                framesSuperseded.incrementAndGet();
+                return true;
+            }
+            queued = new Frame(frame, lane, supersedeKey, 0, 0);
+            queued.gapStart = gapStart;
+            queued.gapEnd = gapEnd;
+            // Still holding the lock, so a concurrent offer for the same key sees this frame
+            return enqueue(lane, queued);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queuedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if nothing is queued and the writer is not in the middle of a write.
+     */
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            return queuedFrames == 0 && writeStartedNanos == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesWritten() { return framesWritten.get(); }
+    public long getBytesWritten() { return bytesWritten.get(); }
+    public long getFramesSuperseded() { return framesSuperseded.get(); }
+    public long getFramesDropped() { return framesDropped.get(); }
+
+    /**
+     * Returns how long the writer has been blocked in the current socket write, or zero if
+     * it is not writing.
+     */
+    public long getWriteStallNanos(long nowNanos) {
+        long started = writeStartedNanos;
+        return started == 0 ? 0 : nowNanos - started;
+    }
+
+    /**
+     * Stops accepting frames. The writer finishes whatever is already queued and then
+     * returns from {@link #drainTo}.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes queued frames to {@code out} until the queue is closed and empty. Each batch is
+     * flushed as a unit.
+     */
+    public void drainTo(OutputStream out) throws IOException, InterruptedException {
+        List<Frame> batch = new ArrayList<>(MAX_BATCH_FRAMES);
+        while (true) {
+            lock.lock();
+            try {
+                while (queuedFrames == 0 && !closed) {
+                    notEmpty.await();
+                }
+                if (queuedFrames == 0) {
+                    return;
+                }
+                takeBatch(batch);
+                writeStartedNanos = System.nanoTime();
+            } finally {
+                lock.unlock();
+            }
+
+            long bytes = 0;
+            MessageEvents.SlowSocketWrite slowWrite = new MessageEvents.SlowSocketWrite();
+            slowWrite.begin();
+            try {
+                for (Frame frame : batch) {
+                    out.write(frame.payload, 0, frame.gapStart);
+                    out.write(frame.payload, frame.gapEnd, frame.payload.length - frame.gapEnd);
+                    bytes += frame.payload.length - (frame.gapEnd - frame.gapStart);
+                }
+                out.flush();
+            } finally {
+                writeStartedNanos = 0;
+            }
+            slowWrite.end();
+            if (slowWrite.shouldCommit()) {
+                slowWrite.recipient = owner;
+                slowWrite.frames = batch.size();
+                slowWrite.bytes = bytes;
+                slowWrite.virtualThread = Thread.currentThread().isVirtual();
+                slowWrite.commit();
+            }
+
+            framesWritten.addAndGet(batch.size());
+            bytesWritten.addAndGet(bytes);
+            reportDeliveries(batch);
+            batch.clear();
+        }
+    }
+
+    private void reportDeliveries(List<Frame> batch) {
+        if (!FRAME_DELIVERED.isEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Frame frame : batch) {
+            if (frame.enqueuedNanos != 0) {
+                MessageEvents.FrameDelivered delivered = new MessageEvents.FrameDelivered();
+                delivered.messageId = frame.messageId;
+                delivered.recipient = owner;
+                delivered.lane = frame.lane.name();
+                delivered.queueTime = now - frame.enqueuedNanos;
+                delivered.commit();
+            }
+        }
+    }
+
+    private boolean enqueue(Lane lane, Frame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (lane == Lane.BROADCAST && lanes.get(lane).size() >= maxBroadcastFrames) {
+                framesDropped.incrementAndGet();
+                return false;
+            }
+            lanes.get(lane).add(frame);
+            if (frame.supersedeKey != null) {
+                supersedable.put(frame.supersedeKey, frame);
+            }
+            queuedFrames++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void takeBatch(List<Frame> batch) {
+        while (queuedFrames > 0 && batch.size() < MAX_BATCH_FRAMES) {
+            for (Lane lane : Lane.values()) {
+                ArrayDeque<Frame> queue = lanes.get(lane);
+                for (int i = 0; i < lane.weight && !queue.isEmpty() && batch.size() < MAX_BATCH_FRAMES; i++) {
+                    Frame frame = queue.poll();
+                    if (frame.supersedeKey != null) {
+                        supersedable.remove(frame.supersedeKey);
+                    }
+                    queuedFrames--;
+                    batch.add(frame);
+                }
+            }
+        }
+    }
+}
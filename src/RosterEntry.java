@@ -0,0 +1,48 @@
+import java.util.Objects;
+
+class RosterEntry {
+    private final String name;
+    private final String address;
+    private final long connectedSince;
+    private final long messagesIn;
+    private final long messagesOut;
+    private final long bytesOut;
+    private final int backlog;
+
+    public RosterEntry(String name, String address, long connectedSince,
+                       long messagesIn, long messagesOut, long bytesOut, int backlog) {
+        this.name = name;
+        this.address = address;
+        this.connectedSince = connectedSince;
+        this.messagesIn = messagesIn;
+        this.messagesOut = messagesOut;
+        this.bytesOut = bytesOut;
+        this.backlog = backlog;
+    }
+
+    public String getName() { return name; }
+    public String getAddress() { return address; }
+    public long getConnectedSince() { return connectedSince; }
+    public long getMessagesIn() { return messagesIn; }
+    public long getMessagesOut() { return messagesOut; }
+    public long getBytesOut() { return bytesOut; }
+    public int getBacklog() { return backlog; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RosterEntry other)) return false;
+        return connectedSince == other.connectedSince
+                && messagesIn == other.messagesIn
+                && messagesOut == other.messagesOut
+                && bytesOut == other.bytesOut
+                && backlog == other.backlog
+                && name.equals(other.name)
+                && address.equals(other.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, address, connectedSince, messagesIn, messagesOut, bytesOut, backlog);
+    }
+}
@@ -0,0 +1,101 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+/**
+ * Table model for the server dashboard. Rows are only ever replaced wholesale from an
+ * immutable roster snapshot, and each snapshot is applied as a single model event.
+ */
+class RosterTableModel extends AbstractTableModel {
+    static final int COLUMN_NAME = 0;
+    static final int COLUMN_ADDRESS = 1;
+    static final int COLUMN_CONNECTED_SINCE = 2;
+
+    private static final String[] COLUMN_NAMES = {
+            "Name", "Address", "Connected since", "Msgs in", "Msgs out", "Bytes out", "Backlog"
+    };
+    private static final Class<?>[] COLUMN_CLASSES = {
+            String.class, String.class, Long.class, Long.class, Long.class, Long.class, Integer.class
+    };
+
+    private List<RosterEntry> rows = new ArrayList<>();
+
+    public void applySnapshot(List<RosterEntry> snapshot) {
+        Map<String, RosterEntry> incoming = new HashMap<>(snapshot.size() * 2);
+        for (RosterEntry entry : snapshot) {
+            incoming.put(entry.getName(), entry);
+        }
+
+        List<RosterEntry> next = new ArrayList<>(snapshot.size());
+        boolean membershipChanged = false;
+        int firstChanged = -1;
+        int lastChanged = -1;
+
+        for (RosterEntry current : rows) {
+            RosterEntry updated = incoming.remove(current.getName());
+            if (updated == null) {
+                membershipChanged = true;
+                continue;
+            }
+            if (!updated.equals(current)) {
+                int index = next.size();
+                if (firstChanged < 0) {
+                    firstChanged = index;
+                }
+                lastChanged = index;
+            }
+            next.add(updated);
+        }
+
+        if (!incoming.isEmpty()) {
+            membershipChanged = true;
+            next.addAll(incoming.values());
+        }
+
+        rows = next;
+
+        if (membershipChanged) {
+            fireTableDataChanged();
+        } else if (firstChanged >= 0) {
+            fireTableRowsUpdated(firstChanged, lastChanged);
+        }
+    }
+
+    public String getNameAt(int rowIndex) {
+        return rows.get(rowIndex).getName();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int columnIndex) {
+        return COLUMN_CLASSES[columnIndex];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        RosterEntry entry = rows.get(rowIndex);
+        return switch (columnIndex) {
+            case COLUMN_NAME -> entry.getName();
+            case COLUMN_ADDRESS -> entry.getAddress();
+            case COLUMN_CONNECTED_SINCE -> entry.getConnectedSince();
+            case 3 -> entry.getMessagesIn();
+            case 4 -> entry.getMessagesOut();
+            case 5 -> entry.getBytesOut();
+            case 6 -> entry.getBacklog();
+            default -> null;
+        };
+    }
+}
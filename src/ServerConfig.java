@@ -0,0 +1,100 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+class ServerConfig {
+    private static final Pattern OPTION_LINE = Pattern.compile("[a-z][a-zA-Z]*(\\.[a-zA-Z]+)*=.*");
+    private static final Set<String> KNOWN_OPTIONS = Set.of(
+            "capture.file",
+            "heartbeat.interval", "heartbeat.readTimeout", "heartbeat.writeTimeout",
+            "accept.backlog", "listen.addresses",
+            "handshake.maxConcurrent", "handshake.queueTimeout", "handshake.timeout",
+            "frame.maxBytes", "outbound.maxBroadcastFrames",
+            "shutdown.deadline", "shutdown.flushTimeout", "shutdown.reconnectDelay",
+            "shutdown.reconnectJitter", "shutdown.batchSize");
+    private static final Set<String> TEXT_OPTIONS = Set.of("capture.file", "listen.addresses");
+
+    private String ipAddress;
+    private int port;
+    private List<String> bannedPhrases;
+    private Map<String, String> options;
+    private List<String> warnings = new ArrayList<>();
+
+    public ServerConfig(String ipAddress, int port, List<String> bannedPhrases, Map<String, String> options) {
+        this.ipAddress = ipAddress;
+        this.port = port;
+        this.bannedPhrases = bannedPhrases;
+        this.options = options;
+    }
+
+    /**
+     * Reads the listen address and port from the first two lines; every following line is a
+     * banned phrase unless it has the form {@code option.name=value} with a known option name.
+     * A line of that form with an unknown name stays a banned phrase and adds a warning, as
+     * does a numeric option whose value is not a number; that option keeps its default.
+     */
+    public static ServerConfig load(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String ipAddress = reader.readLine();
+            int port = Integer.parseInt(reader.readLine());
+            List<String> bannedPhrases = new ArrayList<>();
+            Map<String, String> options = new HashMap<>();
+            List<String> warnings = new ArrayList<>();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (OPTION_LINE.matcher(line).matches()) {
+                    int separator = line.indexOf('=');
+                    String key = line.substring(0, separator);
+                    if (KNOWN_OPTIONS.contains(key)) {
+                        String value = line.substring(separator + 1).trim();
+                        if (TEXT_OPTIONS.contains(key) || isInteger(value)) {
+                            options.put(key, value);
+                        } else {
+                            warnings.add("Option '" + key + "' in " + file.getName() + " is not a number: '" + value + "'; using the default");
+                        }
+                        continue;
+                    }
+                    warnings.add("Unknown option '" + key + "' in " + file.getName() + "; treating the line as a banned phrase");
+                }
+                bannedPhrases.add(line.trim().toLowerCase());
+            }
+
+            ServerConfig config = new ServerConfig(ipAddress, port, bannedPhrases, options);
+            config.warnings = warnings;
+            return config;
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid port: " + e.getMessage());
+        }
+    }
+
+    private static boolean isInteger(String value) {
+        try {
+            Integer.parseInt(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public String getIpAddress() { return ipAddress; }
+    public int getPort() { return port; }
+    public List<String> getBannedPhrases() { return bannedPhrases; }
+    public List<String> getWarnings() { return warnings; }
+
+    public String getOption(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    public int getIntOption(String key, int defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * TCP listener: a bound {@link ServerSocket} whose accepted sockets are handed to the server
+ * as {@link Connection}s.
+ */
+class SocketTransport implements ConnectionListener {
+
+    private static final class SocketConnection implements Connection {
+        private final Socket socket;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public void setReadTimeout(int millis) throws IOException {
+            socket.setSoTimeout(millis);
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final String localAddress;
+
+    public SocketTransport(InetSocketAddress address, int backlog) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        try {
+            serverSocket.bind(address, backlog);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        localAddress = address.getHostString() + ":" + serverSocket.getLocalPort();
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return new SocketConnection(serverSocket.accept());
+    }
+
+    @Override
+    public boolean isClosed() {
+        return serverSocket.isClosed();
+    }
+
+    @Override
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Records inbound server traffic to a compact binary capture file that {@link TrafficReplayer}
+ * can re-drive against a server.
+ *
+ * <p>File layout: a header ({@link #MAGIC}, {@link #VERSION}, capture start in epoch millis)
+ * followed by records of {@code type byte, varint micros since previous record, varint
+ * connection id} and, for {@link #TYPE_LINE}, {@code varint length, UTF-8 bytes}.
+ *
+ * <p>The first write or flush error is reported through the log callback and stops the
+ * capture; the server keeps running without it.
+ */
+class TrafficCapture implements Closeable {
+    static final int MAGIC = 0x4D534743;
+    static final int VERSION = 1;
+
+    static final int TYPE_CONNECT = 1;
+    static final int TYPE_LINE = 2;
+    static final int TYPE_DISCONNECT = 3;
+
+    private final DataOutputStream out;
+    private final Consumer<String> log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long lastRecordNanos;
+    private boolean stopped;
+
+    public TrafficCapture(File file, Consumer<String> log) throws IOException {
+        this.log = log;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        lastRecordNanos = System.nanoTime();
+    }
+
+    public void recordConnect(long connectionId) {
+        write(TYPE_CONNECT, connectionId, null);
+    }
+
+    public void recordLine(long connectionId, String line) {
+        write(TYPE_LINE, connectionId, line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void recordDisconnect(long connectionId) {
+        write(TYPE_DISCONNECT, connectionId, null);
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            if (!stopped) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            stopped = true;
+            out.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(int type, long connectionId, byte[] payload) {
+        lock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+            long micros = (System.nanoTime() - lastRecordNanos) / 1000;
+            out.writeByte(type);
+            writeVarLong(out, micros);
+            writeVarLong(out, connectionId);
+            if (payload != null) {
+                writeVarLong(out, payload.length);
+                out.write(payload);
+            }
+            // Carry the sub-microsecond remainder so offsets do not drift behind real time
+            lastRecordNanos += micros * 1000;
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        stopped = true;
+        log.accept("Traffic capture stopped after a write error: " + e.getMessage());
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in capture file");
+    }
+}
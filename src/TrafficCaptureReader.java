@@ -0,0 +1,72 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequential reader for files written by {@link TrafficCapture}.
+ */
+class TrafficCaptureReader implements Closeable {
+
+    static class Record {
+        final int type;
+        final long offsetMicros;
+        final long connectionId;
+        final String line;
+
+        Record(int type, long offsetMicros, long connectionId, String line) {
+            this.type = type;
+            this.offsetMicros = offsetMicros;
+            this.connectionId = connectionId;
+            this.line = line;
+        }
+    }
+
+    private final DataInputStream in;
+    private final long startEpochMillis;
+    private long offsetMicros;
+
+    public TrafficCaptureReader(File file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        if (in.readInt() != TrafficCapture.MAGIC) {
+            in.close();
+            throw new IOException("Not a traffic capture file: " + file);
+        }
+        int version = in.readUnsignedByte();
+        if (version != TrafficCapture.VERSION) {
+            in.close();
+            throw new IOException("Unsupported capture version " + version);
+        }
+        this.startEpochMillis = in.readLong();
+    }
+
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    /**
+     * Returns the next record, or {@code null} at the end of the capture. A record truncated
+     * by a server crash is treated as the end of the capture.
+     */
+    public Record next() throws IOException {
+        try {
+            int type = in.readUnsignedByte();
+            offsetMicros += TrafficCapture.readVarLong(in);
+            long connectionId = TrafficCapture.readVarLong(in);
+            String line = null;
+            if (type == TrafficCapture.TYPE_LINE) {
+                byte[] payload = new byte[(int) TrafficCapture.readVarLong(in)];
+                in.readFully(payload);
+                line = new String(payload, StandardCharsets.UTF_8);
+            } else if (type != TrafficCapture.TYPE_CONNECT && type != TrafficCapture.TYPE_DISCONNECT) {
+                throw new IOException("Unknown capture record type " + type);
+            }
+            return new Record(type, offsetMicros, connectionId, line);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Re-drives the sessions recorded in a {@link TrafficCapture} file against a running server
+ * and prints a latency and throughput report.
+ *
+ * <p>Usage: {@code java TrafficReplayer <capture-file> <host> <port> [speed]} where speed is
+ * {@code 1} (original timing, the default), any multiplier such as {@code 10x}, or {@code max}.
+ */
+public class TrafficReplayer {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long ECHO_GRACE_MILLIS = 2000;
+
+    private final String host;
+    private final int port;
+    private final double speed;
+
+    private final Map<Long, Session> sessions = new HashMap<>();
+    private final ExecutorService sessionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram echoLatency = new LatencyHistogram();
+    private final LongAdder sessionCount = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    private final LongAdder rejectedLogins = new LongAdder();
+    private final LongAdder linesSent = new LongAdder();
+    private final LongAdder linesReceived = new LongAdder();
+    private final LongAdder serverNotices = new LongAdder();
+    private final LongAdder unansweredMessages = new LongAdder();
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: java TrafficReplayer <capture-file> <host> <port> [1|<N>x|max]");
+            System.exit(1);
+        }
+
+        try {
+            double speed = parseSpeed(args.length > 3 ? args[3] : "1");
+            TrafficReplayer replayer = new TrafficReplayer(args[1], Integer.parseInt(args[2]), speed);
+            replayer.replay(new File(args[0]));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid argument: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Error reading capture: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public TrafficReplayer(String host, int port, double speed) {
+        this.host = host;
+        this.port = port;
+        this.speed = speed;
+    }
+
+    static double parseSpeed(String value) {
+        String speed = value.trim().toLowerCase();
+        if (speed.equals("max")) {
+            return 0;
+        }
+        if (speed.endsWith("x")) {
+            speed = speed.substring(0, speed.length() - 1);
+        }
+        double multiplier = Double.parseDouble(speed);
+        if (multiplier <= 0) {
+            throw new IllegalArgumentException("speed must be positive: " + value);
+        }
+        return multiplier;
+    }
+
+    public void replay(File captureFile) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+
+        try (TrafficCaptureReader reader = new TrafficCaptureReader(captureFile)) {
+            TrafficCaptureReader.Record record;
+            // Offsets count from server start; the replay clock starts at the first record
+            long firstOffsetMicros = -1;
+            while ((record = reader.next()) != null) {
+                if (firstOffsetMicros < 0) {
+                    firstOffsetMicros = record.offsetMicros;
+                }
+                if (speed > 0) {
+                    waitUntil(startNanos + (long) ((record.offsetMicros - firstOffsetMicros) * 1000 / speed));
+                }
+                dispatch(record);
+            }
+        }
+
+        for (Session session : sessions.values()) {
+            session.actions.add(new TrafficCaptureReader.Record(TrafficCapture.TYPE_DISCONNECT, 0, 0, null));
+        }
+        sessionExecutor.shutdown();
+        sessionExecutor.awaitTermination(1, TimeUnit.HOURS);
+
+        printReport(captureFile, System.nanoTime() - startNanos);
+    }
+
+    private void dispatch(TrafficCaptureReader.Record record) {
+        if (record.type == TrafficCapture.TYPE_CONNECT) {
+            Session session = new Session();
+            sessions.put(record.connectionId, session);
+            sessionCount.increment();
+            session.actions.add(record);
+            sessionExecutor.submit(session::run);
+            return;
+        }
+
+        Session session = record.type == TrafficCapture.TYPE_DISCONNECT
+                ? sessions.remove(record.connectionId)
+                : sessions.get(record.connectionId);
+        if (session != null) {
+            session.actions.add(record);
+        }
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void printReport(File captureFile, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+        long sent = linesSent.sum();
+        long received = linesReceived.sum();
+
+        System.out.println("Replayed " + captureFile + " against " + host + ":" + port
+                + " at " + (speed == 0 ? "max speed" : speed + "x"));
+        System.out.printf("Elapsed: %.2fs%n", seconds);
+        System.out.println("Sessions: " + sessionCount.sum() + " (connect failures: " + connectFailures.sum()
+                + ", logins rejected: " + rejectedLogins.sum() + ")");
+        System.out.printf("Lines sent: %d (%.1f/s), lines received: %d (%.1f/s)%n",
+                sent, sent / seconds, received, received / seconds);
+        System.out.println("Login latency: " + loginLatency.summary());
+        System.out.println("Message echo latency: " + echoLatency.summary());
+        System.out.println("Unanswered messages: " + unansweredMessages.sum()
+                + ", server notices: " + serverNotices.sum());
+    }
+
+    /**
+     * Maps an outbound chat line to the key of the echo the server sends back to its author,
+     * or {@code null} for lines that get no echo.
+     */
+    static String outboundEchoKey(String line) {
+        if (line.startsWith("MESSAGE_ALL ")) {
+            return "ALL\0" + line.substring(12);
+        }
+        String kind;
+        String rest;
+        if (line.startsWith("MESSAGE_TO_MULTIPLE ")) {
+            kind = "TO\0";
+            rest = line.substring(20);
+        } else if (line.startsWith("MESSAGE_TO ")) {
+            kind = "TO\0";
+            rest = line.substring(11);
+        } else if (line.startsWith("MESSAGE_EXCEPT ")) {
+            kind = "EXCEPT\0";
+            rest = line.substring(15);
+        } else {
+            return null;
+        }
+        String[] parts = rest.split(": ", 2);
+        return parts.length == 2 ? kind + parts[1] : null;
+    }
+
+    static String inboundEchoKey(String line, String username) {
+        String allPrefix = "MESSAGE_ALL " + username + ": ";
+        if (line.startsWith(allPrefix)) {
+            return "ALL\0" + line.substring(allPrefix.length());
+        }
+        if (line.startsWith("MESSAGE_PERSONAL To ")) {
+            String[] parts = line.substring(20).split(": ", 2);
+            return parts.length == 2 ? "TO\0" + parts[1] : null;
+        }
+        if (line.startsWith("MESSAGE_EXCEPT " + username + " (except ")) {
+            int end = line.indexOf("): ");
+            return end > -1 ? "EXCEPT\0" + line.substring(end + 3) : null;
+        }
+        return null;
+    }
+
+    private class Session {
+        private final BlockingQueue<TrafficCaptureReader.Record> actions = new LinkedBlockingQueue<>();
+        private final Map<String, ArrayDeque<Long>> pendingEchoes = new HashMap<>();
+
+        private Socket socket;
+        private volatile Writer writer;
+        private String username;
+        private volatile long loginStartNanos;
+
+        void run() {
+            try {
+                while (true) {
+                    TrafficCaptureReader.Record action = actions.take();
+                    if (action.type == TrafficCapture.TYPE_CONNECT) {
+                        connect();
+                    } else if (action.type == TrafficCapture.TYPE_LINE) {
+                        if (!action.line.equals("PONG")) {
+                            send(action.line);
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        private void connect() {
+            try {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Thread.ofVirtual().start(() -> listen(reader));
+            } catch (IOException e) {
+                connectFailures.increment();
+                socket = null;
+                writer = null;
+            }
+        }
+
+        private void send(String line) {
+            if (writer == null) {
+                return;
+            }
+
+            if (username == null) {
+                username = line;
+                loginStartNanos = System.nanoTime();
+            } else {
+                String key = outboundEchoKey(line);
+                if (key != null) {
+                    synchronized (pendingEchoes) {
+                        pendingEchoes.computeIfAbsent(key, k -> new ArrayDeque<>()).add(System.nanoTime());
+                    }
+                }
+            }
+
+            try {
+                synchronized (writer) {
+                    writer.write(line);
+                    writer.write('\n');
+                    if (speed > 0 || actions.isEmpty()) {
+                        writer.flush();
+                    }
+                }
+                linesSent.increment();
+            } catch (IOException e) {
+                writer = null;
+            }
+        }
+
+        private void sendPong() {
+            Writer out = writer;
+            if (out == null) {
+                return;
+            }
+            synchronized (out) {
+                try {
+                    out.write("PONG\n");
+                    out.flush();
+                } catch (IOException e) {
+                    // The session loop will notice the broken connection
+                }
+            }
+        }
+
+        private void listen(BufferedReader reader) {
+            boolean loggedIn = false;
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    long now = System.nanoTime();
+                    linesReceived.increment();
+
+                    if (!loggedIn) {
+                        loggedIn = true;
+                        loginLatency.recordNanos(now - loginStartNanos);
+                        if (!"USERNAME_OK".equals(line)) {
+                            rejectedLogins.increment();
+                        }
+                        continue;
+                    }
+
+                    if (line.equals("PING")) {
+                        sendPong();
+                        continue;
+                    }
+
+                    if (line.startsWith("MESSAGE_PERSONAL Server: ")) {
+                        serverNotices.increment();
+                        continue;
+                    }
+
+                    String key = inboundEchoKey(line, username);
+                    if (key != null) {
+                        Long sentNanos;
+                        synchronized (pendingEchoes) {
+                            ArrayDeque<Long> pending = pendingEchoes.get(key);
+                            sentNanos = pending == null ? null : pending.poll();
+                            if (pending != null && pending.isEmpty()) {
+                                pendingEchoes.remove(key);
+                            }
+                        }
+                        if (sentNanos != null) {
+                            echoLatency.recordNanos(now - sentNanos);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Socket closed by the session or the server
+            }
+        }
+
+        private void close() {
+            try {
+                if (writer != null) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                // Ignore
+            }
+            awaitPendingEchoes();
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Ignore
+            }
+            synchronized (pendingEchoes) {
+                pendingEchoes.values().forEach(pending -> unansweredMessages.add(pending.size()));
+                pendingEchoes.clear();
+            }
+        }
+
+        private void awaitPendingEchoes() {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ECHO_GRACE_MILLIS);
+            while (System.nanoTime() < deadline && writer != null) {
+                synchronized (pendingEchoes) {
+                    if (pendingEchoes.isEmpty()) {
+                        return;
+                    }
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+    }
+}